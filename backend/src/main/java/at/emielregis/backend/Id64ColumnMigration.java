@@ -0,0 +1,82 @@
+package at.emielregis.backend;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.orm.jpa.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Configuration;
+
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
+import java.lang.invoke.MethodHandles;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+
+/**
+ * Migrates the SteamID64 columns of databases created before the IDs were stored as numbers.
+ * Hibernate's schema update never changes the type of an existing column, so the VARCHAR columns are converted to
+ * BIGINT here before the entity manager is created. Databases that already use BIGINT columns, and new databases,
+ * are left untouched.
+ */
+@Configuration
+public class Id64ColumnMigration {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final List<String> TABLES = List.of("STEAM_ACCOUNT", "CSGOACCOUNT", "FAILED_ACCOUNT");
+    private static final String COLUMN = "ID64";
+
+    private final DataSource dataSource;
+
+    /**
+     * Constructs the migration.
+     *
+     * @param dataSource The data source of the database whose columns are migrated.
+     */
+    public Id64ColumnMigration(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Makes the entity manager wait for the migration.
+     */
+    @Configuration
+    static class EntityManagerFactoryDependsOnMigration extends EntityManagerFactoryDependsOnPostProcessor {
+        EntityManagerFactoryDependsOnMigration() {
+            super(Id64ColumnMigration.class);
+        }
+    }
+
+    /**
+     * Converts every SteamID64 column that is not stored as a number yet.
+     */
+    @PostConstruct
+    private void migrate() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            for (String table : TABLES) {
+                if (!isTextColumn(connection, table)) {
+                    continue;
+                }
+
+                LOGGER.info("Converting column {}.{} to BIGINT, this may take a while.", table, COLUMN);
+                long start = System.currentTimeMillis();
+                try (Statement statement = connection.createStatement()) {
+                    statement.execute("ALTER TABLE " + table + " ALTER COLUMN " + COLUMN + " BIGINT NOT NULL");
+                }
+                LOGGER.info("Converted column {}.{} in {} ms.", table, COLUMN, System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    private static boolean isTextColumn(Connection connection, String table) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, null, table, COLUMN)) {
+            if (!columns.next()) {
+                return false; // The table is created by Hibernate with the right type
+            }
+            int type = columns.getInt("DATA_TYPE");
+            return type == Types.VARCHAR || type == Types.CHAR || type == Types.LONGVARCHAR;
+        }
+    }
+}
@@ -21,8 +21,8 @@ public class CSGOAccount {
     @GeneratedValue(strategy = GenerationType.SEQUENCE)
     private Long id;
 
-    @Column(unique = true, nullable = false, length = 17)
-    private String id64;
+    @Column(unique = true, nullable = false)
+    private Long id64;
 
     @OneToOne
     private CSGOInventory csgoInventory;
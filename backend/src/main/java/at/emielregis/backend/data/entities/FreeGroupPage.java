@@ -0,0 +1,44 @@
+package at.emielregis.backend.data.entities;
+
+import lombok.*;
+import org.hibernate.Hibernate;
+
+import javax.persistence.*;
+import java.util.Objects;
+
+/**
+ * Represents a page of a Steam group below the group's highest handed out page that has to be requested again,
+ * either because its request failed or because it was skipped before the pages were allocated per group.
+ */
+@Entity
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Getter
+@Setter
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"steam_group_id", "page"}))
+public class FreeGroupPage {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE)
+    private Long id;
+
+    @ManyToOne(optional = false)
+    private SteamGroup steamGroup;
+
+    @Column(nullable = false)
+    private int page;
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || Hibernate.getClass(this) != Hibernate.getClass(o)) return false;
+        FreeGroupPage that = (FreeGroupPage) o;
+        return id != null && Objects.equals(id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().hashCode();
+    }
+}
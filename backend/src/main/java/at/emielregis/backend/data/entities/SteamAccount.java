@@ -1,13 +1,16 @@
 package at.emielregis.backend.data.entities;
 
+import at.emielregis.backend.data.enums.MappingState;
 import lombok.*;
 import org.hibernate.Hibernate;
 
 import javax.persistence.*;
+import java.time.LocalDateTime;
 import java.util.Objects;
 
 /**
- * Represents a Steam account with a unique identifier (id64).
+ * Represents a Steam account with a unique identifier (id64) and the state of its mapping.
+ * The state is indexed together with the row ID, so unmapped accounts are found with a range scan of the index.
  */
 @Entity
 @Builder
@@ -15,14 +18,22 @@ import java.util.Objects;
 @AllArgsConstructor
 @Getter
 @Setter
+@Table(indexes = @Index(columnList = "mappingState, id"))
 public class SteamAccount {
 
     @Id
+    // SteamAccountRepository#insertMissing takes its IDs from the same default sequence, change both together
     @GeneratedValue(strategy = GenerationType.SEQUENCE)
     private Long id;
 
-    @Column(unique = true, nullable = false, length = 17)
-    private String id64;
+    @Column(unique = true, nullable = false)
+    private Long id64;
+
+    // Nullable in the schema only, so the column can be added to existing tables (see SteamAccountService#init)
+    @Builder.Default
+    private MappingState mappingState = MappingState.DISCOVERED;
+
+    private LocalDateTime lastAttempt; // The last time the account was handed out or its request completed
 
     @Override
     public boolean equals(Object o) {
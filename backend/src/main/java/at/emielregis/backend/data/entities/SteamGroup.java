@@ -8,7 +8,8 @@ import java.util.List;
 import java.util.Objects;
 
 /**
- * Represents a Steam group with its name, mapped pages, and lock status.
+ * Represents a Steam group with its name, the highest page handed out for mapping, its amount of pages, and lock status.
+ * Pages below the highest page that still have to be requested are stored as {@link FreeGroupPage}s.
  */
 @Entity
 @Builder
@@ -25,6 +26,13 @@ public class SteamGroup {
     @Column(unique = true, nullable = false)
     private String name;
 
+    @Column
+    private Integer highestPage; // Null for groups stored before the pages were allocated per group
+
+    @Column
+    private Integer totalPages; // Amount of pages of the member list when it was last requested, null if never requested
+
+    // Pages handed out before the pages were allocated per group, only read to convert them once
     @ElementCollection
     private List<Integer> mappedPages;
 
@@ -1,9 +1,14 @@
 package at.emielregis.backend.data.entities.items;
 
+import at.emielregis.backend.data.enums.Exterior;
+import at.emielregis.backend.data.enums.Rarity;
+import at.emielregis.backend.data.enums.SpecialItemType;
+import at.emielregis.backend.data.enums.StickerType;
 import lombok.*;
 import org.hibernate.Hibernate;
 
 import javax.persistence.*;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 
@@ -66,6 +71,49 @@ public class ItemCollection {
             && this.getItemType().deepEquals(item.getItemType());
     }
 
+    /**
+     * Returns a key that is equal for two ItemCollections exactly if they are equal according to
+     * {@link #deepEquals(ItemCollection)}, so equal items can be looked up in a hash map instead of comparing them
+     * with every other item.
+     *
+     * @return The structural key of this ItemCollection.
+     */
+    public StructuralKey structuralKey() {
+        List<StickerKey> stickerKeys = List.of();
+        if (stickers != null && !stickers.isEmpty()) {
+            stickerKeys = new ArrayList<>(stickers.size());
+            for (Sticker sticker : stickers) {
+                stickerKeys.add(new StickerKey(sticker.getName(), sticker.getStickerType()));
+            }
+        }
+        return new StructuralKey(
+            itemType.getItemName() == null ? null : itemType.getItemName().getName(),
+            itemType.getCategory() == null ? null : itemType.getCategory().getName(),
+            itemType.getItemSet() == null ? null : itemType.getItemSet().getName(),
+            itemType.getExterior(),
+            itemType.getRarity(),
+            itemType.getSpecialItemType(),
+            itemType.getMarketHashName(),
+            nameTag,
+            stickerKeys,
+            charm == null ? null : charm.getName()
+        );
+    }
+
+    /**
+     * The attributes compared by {@link #deepEquals(ItemCollection)}, see {@link #structuralKey()}.
+     */
+    public record StructuralKey(String itemName, String category, String itemSet, Exterior exterior, Rarity rarity,
+                                SpecialItemType specialItemType, String marketHashName, String nameTag,
+                                List<StickerKey> stickers, String charm) {
+    }
+
+    /**
+     * The attributes compared by {@link Sticker#deepEquals(Sticker)}.
+     */
+    public record StickerKey(String name, StickerType stickerType) {
+    }
+
     private boolean compareStickers(ItemCollection item) {
         if (this.stickers == null && item.getStickers() == null) {
             return true;
@@ -0,0 +1,13 @@
+package at.emielregis.backend.data.enums;
+
+/**
+ * The state of a discovered {@link at.emielregis.backend.data.entities.SteamAccount} in the account mapping.
+ * Stored by its ordinal, so new states must only be appended.
+ */
+public enum MappingState {
+    DISCOVERED, // Not requested yet
+    IN_FLIGHT, // Handed out to the mapping threads, reset to DISCOVERED on startup if the session ended before
+    MAPPED, // Inventory fetched and stored
+    FAILED, // Inventory request failed, retried through the FailedAccount entry
+    PRIVATE // Inventory or account is private
+}
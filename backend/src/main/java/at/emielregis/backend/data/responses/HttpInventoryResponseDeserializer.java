@@ -0,0 +1,395 @@
+package at.emielregis.backend.data.responses;
+
+import at.emielregis.backend.data.entities.items.*;
+import at.emielregis.backend.data.enums.Exterior;
+import at.emielregis.backend.data.enums.Rarity;
+import at.emielregis.backend.data.enums.SpecialItemType;
+import at.emielregis.backend.data.enums.StickerType;
+import at.emielregis.backend.service.ItemDescriptionCache;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Deserializer for {@link HttpInventoryResponse} which streams the JSON tokens of the response directly into
+ * {@link ItemCollection}s, without binding the assets and descriptions into intermediate maps first.
+ * The assets are counted per classId and instanceId and each description is parsed once into the item type,
+ * stickers, charm and name tag of the matching item collection. Descriptions found in the {@link ItemDescriptionCache}
+ * are skipped without being parsed.
+ */
+public class HttpInventoryResponseDeserializer extends StdDeserializer<HttpInventoryResponse> {
+
+    /**
+     * Identifier for unique item types based on classId and instanceId.
+     */
+    private record UniqueItemTypeIdentifier(String classId, String instanceId) {
+    }
+
+    /**
+     * Splits sticker names, including the names that contain commas listed in the resource file.
+     */
+    private static final StickerNameMatcher STICKER_NAMES = StickerNameMatcher.fromResource("sticker_names_with_commas.txt");
+
+    /**
+     * The cache shared by all responses, null if every description is parsed.
+     */
+    private final ItemDescriptionCache descriptionCache;
+
+    /**
+     * Constructs the deserializer.
+     *
+     * @param descriptionCache The cache of parsed descriptions, or null to parse every description.
+     */
+    public HttpInventoryResponseDeserializer(ItemDescriptionCache descriptionCache) {
+        super(HttpInventoryResponse.class);
+        this.descriptionCache = descriptionCache;
+    }
+
+    @Override
+    public HttpInventoryResponse deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            return (HttpInventoryResponse) context.handleUnexpectedToken(HttpInventoryResponse.class, parser);
+        }
+
+        Integer success = null;
+        Integer hasMoreItems = null;
+        String lastAssetId = null;
+        Map<UniqueItemTypeIdentifier, Integer> amounts = new HashMap<>();
+        Map<UniqueItemTypeIdentifier, ItemDescription> descriptions = new HashMap<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.VALUE_NULL) {
+                continue;
+            }
+
+            switch (field) {
+                case "success" -> success = parser.getValueAsInt();
+                case "more_items" -> hasMoreItems = parser.getValueAsInt();
+                case "last_assetid" -> lastAssetId = parser.getValueAsString();
+                case "assets" -> readAssets(parser, amounts);
+                case "descriptions" -> readDescriptions(parser, descriptions);
+                default -> parser.skipChildren();
+            }
+        }
+
+        // The assets and descriptions are joined at the end, so their order in the response doesn't matter
+        List<ItemCollection> itemCollections = new ArrayList<>(amounts.size());
+        amounts.forEach((identifier, amount) -> {
+            ItemDescription description = descriptions.get(identifier);
+            if (description != null) {
+                itemCollections.add(description.toItemCollection(amount));
+            }
+        });
+
+        return new HttpInventoryResponse(success, hasMoreItems, lastAssetId, itemCollections);
+    }
+
+    /**
+     * Reads the 'assets' array of the response and counts the number of each unique item.
+     * Groups items by their classId and instanceId.
+     *
+     * @param parser  The parser positioned at the start of the array.
+     * @param amounts The amounts of each unique item, updated in place.
+     * @throws IOException If the response can't be read.
+     */
+    private void readAssets(JsonParser parser, Map<UniqueItemTypeIdentifier, Integer> amounts) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String classId = null;
+            String instanceId = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "classid" -> classId = parser.getValueAsString();
+                    case "instanceid" -> instanceId = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+
+            // Ensure that both classid and instanceid are present
+            if (classId == null || instanceId == null) {
+                throw new IllegalStateException("ClassId or InstanceId is null in asset at " + parser.getCurrentLocation());
+            }
+
+            amounts.merge(new UniqueItemTypeIdentifier(classId, instanceId), 1, Integer::sum);
+        }
+    }
+
+    /**
+     * Reads the 'descriptions' array of the response and parses each description that is not cached yet.
+     *
+     * @param parser       The parser positioned at the start of the array.
+     * @param descriptions The parsed descriptions, keyed by their classId and instanceId.
+     * @throws IOException If the response can't be read.
+     */
+    private void readDescriptions(JsonParser parser, Map<UniqueItemTypeIdentifier, ItemDescription> descriptions) throws IOException {
+        ItemDescriptionCache cache = descriptionCache;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String name = null;
+            String category = null;
+            String classId = null;
+            String instanceId = null;
+            String marketHashName = null;
+            DescriptionDetails details = new DescriptionDetails();
+            ItemDescription cached = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (cached != null && !field.equals("classid") && !field.equals("instanceid")) {
+                    // the rest of a cached description doesn't have to be parsed
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+
+                switch (field) {
+                    case "name" -> name = parser.getValueAsString();
+                    case "classid" -> {
+                        classId = parser.getValueAsString();
+                        cached = lookup(cache, classId, instanceId);
+                    }
+                    case "instanceid" -> {
+                        instanceId = parser.getValueAsString();
+                        cached = lookup(cache, classId, instanceId);
+                    }
+                    case "type" -> category = parser.getValueAsString();
+                    case "market_hash_name" -> marketHashName = parser.getValueAsString();
+                    case "descriptions" -> readDescriptionLines(parser, cache, details);
+                    case "tags" -> readTags(parser, details);
+                    default -> parser.skipChildren();
+                }
+            }
+
+            UniqueItemTypeIdentifier identifier = new UniqueItemTypeIdentifier(classId, instanceId);
+            if (cached != null) {
+                descriptions.put(identifier, cached);
+                continue;
+            }
+
+            // Build the ItemType object with parsed data
+            ItemType.ItemTypeBuilder itemTypeBuilder = ItemType.builder();
+            itemTypeBuilder.itemName(itemName(cache, prune(name)));
+            itemTypeBuilder.exterior(details.exterior);
+            itemTypeBuilder.rarity(details.rarity);
+            itemTypeBuilder.marketHashName(marketHashName);
+            itemTypeBuilder.category(itemCategory(cache, prune(category)));
+
+            if (details.itemSet != null) {
+                itemTypeBuilder.itemSet(itemSet(cache, details.itemSet));
+            }
+
+            // Ensure item is not both StatTrak and Souvenir
+            if (details.souvenir && details.statTrak) {
+                throw new IllegalStateException("Item can't be both Souvenir and StatTrak at the same time!");
+            }
+
+            itemTypeBuilder.specialItemType(SpecialItemType.fromBooleans(details.statTrak, details.souvenir));
+
+            ItemDescription description = new ItemDescription(itemTypeBuilder.build(), details.nameTag, details.stickers, details.charm);
+            descriptions.put(identifier, description);
+            if (cache != null && classId != null && instanceId != null) {
+                cache.put(classId, instanceId, description);
+            }
+        }
+    }
+
+    /**
+     * Looks up a description in the cache once both its classId and instanceId are known.
+     *
+     * @return The cached description, or null if it is not cached or not both IDs are known yet.
+     */
+    private ItemDescription lookup(ItemDescriptionCache cache, String classId, String instanceId) {
+        if (cache == null || classId == null || instanceId == null) {
+            return null;
+        }
+        return cache.get(classId, instanceId);
+    }
+
+    /**
+     * Reads the nested 'descriptions' array of a description, which contains stickers, charms and name tags.
+     *
+     * @param parser  The parser positioned at the start of the array.
+     * @param cache   The cache the stickers and charms are shared with, or null.
+     * @param details The details of the description, updated in place.
+     * @throws IOException If the response can't be read.
+     */
+    private void readDescriptionLines(JsonParser parser, ItemDescriptionCache cache, DescriptionDetails details) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String lineName = null;
+            String lineValue = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "name" -> lineName = parser.getValueAsString();
+                    case "value" -> lineValue = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (lineName == null || lineValue == null) {
+                continue;
+            }
+
+            if (lineName.equals("sticker_info")) {
+                details.stickers = parseStickers(cache, lineValue, details.stickers);
+            } else if (lineName.equals("keychain_info")) {
+                // Parse charm information
+                if (lineValue.contains("<br>Charm:")) {
+                    String charmName = lineValue.substring(lineValue.indexOf("<br>Charm:") + "<br>Charm:".length()).trim();
+                    charmName = charmName.substring(0, charmName.indexOf("</center>")).trim();
+                    details.charm = charm(cache, charmName);
+                }
+            } else if (lineValue.startsWith("Name Tag: ''")) {
+                // Extract name tag
+                details.nameTag = lineValue.substring(12, lineValue.length() - 2);
+            }
+        }
+    }
+
+    /**
+     * Reads the 'tags' array of a description to extract item set, rarity, exterior, and quality (StatTrak or Souvenir).
+     *
+     * @param parser  The parser positioned at the start of the array.
+     * @param details The details of the description, updated in place.
+     * @throws IOException If the response can't be read.
+     */
+    private void readTags(JsonParser parser, DescriptionDetails details) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            String category = null;
+            String tagName = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                parser.nextToken();
+                switch (field) {
+                    case "category" -> category = parser.getValueAsString();
+                    case "localized_tag_name" -> tagName = parser.getValueAsString();
+                    default -> parser.skipChildren();
+                }
+            }
+
+            if (category == null) {
+                continue;
+            }
+
+            switch (category) {
+                case "ItemSet", "StickerCapsule", "PatchCapsule", "SprayCapsule", "KeychainCapsule" -> details.itemSet = tagName;
+                case "Rarity" -> details.rarity = Rarity.of(tagName);
+                case "Exterior" -> details.exterior = Exterior.of(tagName);
+                case "Quality" -> {
+                    if (tagName.startsWith("StatTrak")) {
+                        details.statTrak = true;
+                    } else if (tagName.startsWith("Souvenir")) {
+                        details.souvenir = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Parses the stickers of a 'sticker_info' description line.
+     *
+     * @param cache    The cache the stickers are shared with, or null.
+     * @param value    The HTML value of the description line.
+     * @param previous The stickers parsed so far, returned if the line contains no stickers.
+     * @return The parsed stickers.
+     */
+    private List<Sticker> parseStickers(ItemDescriptionCache cache, String value, List<Sticker> previous) {
+        int marker = value.indexOf("<br>Sticker:");
+        if (marker < 0) {
+            return previous;
+        }
+
+        int amountOfStickers = count(value, "<img");
+
+        int from = marker + "<br>Sticker:".length();
+        int to = value.indexOf("</center>", from);
+        List<Sticker> stickers = new ArrayList<>();
+        for (String stickerName : STICKER_NAMES.split(value, from, to)) {
+            stickers.add(sticker(cache, stickerName));
+        }
+
+        if (stickers.size() != amountOfStickers) {
+            throw new IllegalStateException("Amount of stickers does not match for string: " + value);
+        }
+
+        return stickers;
+    }
+
+    private static int count(String string, String part) {
+        int count = 0;
+        for (int i = string.indexOf(part); i >= 0; i = string.indexOf(part, i + part.length())) {
+            count++;
+        }
+        return count;
+    }
+
+    private ItemName itemName(ItemDescriptionCache cache, String name) {
+        return cache != null ? cache.itemName(name) : ItemName.builder().name(name).build();
+    }
+
+    private ItemCategory itemCategory(ItemDescriptionCache cache, String name) {
+        return cache != null ? cache.itemCategory(name) : ItemCategory.builder().name(name).build();
+    }
+
+    private ItemSet itemSet(ItemDescriptionCache cache, String name) {
+        return cache != null ? cache.itemSet(name) : ItemSet.builder().name(name).build();
+    }
+
+    private Sticker sticker(ItemDescriptionCache cache, String name) {
+        return cache != null ? cache.sticker(name) : Sticker.builder().name(name).stickerType(StickerType.ofName(name)).build();
+    }
+
+    private Charm charm(ItemDescriptionCache cache, String name) {
+        return cache != null ? cache.charm(name) : Charm.builder().name(name).build();
+    }
+
+    /**
+     * Removes the 'StatTrak™' and 'Souvenir' prefixes from item names.
+     *
+     * @param string The original item name.
+     * @return The pruned item name without prefixes.
+     */
+    private String prune(String string) {
+        if (string.startsWith("StatTrak™ ")) {
+            return string.substring(10);
+        }
+        if (string.startsWith("★ StatTrak™ ")) {
+            return string.substring(0, 2) + string.substring(12);
+        }
+        if (string.startsWith("Souvenir ")) {
+            return string.substring(9);
+        }
+        return string;
+    }
+
+    /**
+     * The details of a description read from its nested 'descriptions' and 'tags' arrays.
+     */
+    private static class DescriptionDetails {
+        private String itemSet;
+        private Rarity rarity;
+        private Exterior exterior;
+        private boolean statTrak;
+        private boolean souvenir;
+        private String nameTag;
+        private List<Sticker> stickers;
+        private Charm charm;
+    }
+}
@@ -0,0 +1,42 @@
+package at.emielregis.backend.data.responses;
+
+import at.emielregis.backend.data.entities.items.Charm;
+import at.emielregis.backend.data.entities.items.ItemCollection;
+import at.emielregis.backend.data.entities.items.ItemType;
+import at.emielregis.backend.data.entities.items.Sticker;
+
+import java.util.List;
+
+/**
+ * The parsed description of an item in a Steam inventory, identified by its classId and instanceId.
+ * Descriptions are shared between all inventories containing the same item (see
+ * {@link at.emielregis.backend.service.ItemDescriptionCache}), so neither the description nor the transient
+ * entities it references may be modified.
+ *
+ * @param itemType The transient item type of the item.
+ * @param nameTag  The name tag of the item, or null.
+ * @param stickers The stickers applied to the item, or null.
+ * @param charm    The charm attached to the item, or null.
+ */
+public record ItemDescription(ItemType itemType, String nameTag, List<Sticker> stickers, Charm charm) {
+
+    public ItemDescription {
+        stickers = stickers == null ? null : List.copyOf(stickers);
+    }
+
+    /**
+     * Creates a new item collection for the given amount of items with this description.
+     *
+     * @param amount The amount of items.
+     * @return The transient item collection.
+     */
+    public ItemCollection toItemCollection(int amount) {
+        return ItemCollection.builder()
+            .amount(amount)
+            .itemType(itemType)
+            .nameTag(nameTag)
+            .stickers(stickers)
+            .charm(charm)
+            .build();
+    }
+}
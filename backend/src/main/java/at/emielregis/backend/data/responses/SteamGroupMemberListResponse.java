@@ -0,0 +1,180 @@
+package at.emielregis.backend.data.responses;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Represents a single page of the member list of a Steam group ('memberslistxml').
+ * The XML is streamed with a StAX reader: the SteamID64s are parsed from the text characters straight into a
+ * primitive long array, without creating a string per member, and all other elements are skipped.
+ */
+public class SteamGroupMemberListResponse {
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = createInputFactory();
+
+    /**
+     * The SteamID64s of the members on this page.
+     */
+    private final long[] id64s;
+
+    /**
+     * The amount of pages of the whole member list, 0 if the response didn't contain it.
+     */
+    private final int totalPages;
+
+    /**
+     * The number of this page, 0 if the response didn't contain it.
+     */
+    private final int currentPage;
+
+    /**
+     * Whether the response links to a next page.
+     */
+    private final boolean hasNextPage;
+
+    SteamGroupMemberListResponse(long[] id64s, int totalPages, int currentPage, boolean hasNextPage) {
+        this.id64s = id64s;
+        this.totalPages = totalPages;
+        this.currentPage = currentPage;
+        this.hasNextPage = hasNextPage;
+    }
+
+    /**
+     * Reads a member list page. The stream is read up to the end of the member list but not closed.
+     *
+     * @param stream The body of the response.
+     * @return The parsed page.
+     * @throws IOException If the body is not a member list, e.g. the error page Steam returns for unknown groups.
+     */
+    public static SteamGroupMemberListResponse read(InputStream stream) throws IOException {
+        XMLStreamReader reader = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(stream);
+            reader.nextTag();
+            if (!"memberList".equals(reader.getLocalName())) {
+                throw new IOException("Response is not a member list but <" + reader.getLocalName() + ">");
+            }
+
+            long[] id64s = new long[1000]; // Steam sends up to 1000 members per page
+            int amount = 0;
+            int totalPages = 0;
+            int currentPage = 0;
+            boolean hasNextPage = false;
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+                switch (reader.getLocalName()) {
+                    case "steamID64" -> {
+                        if (amount == id64s.length) {
+                            id64s = Arrays.copyOf(id64s, amount * 2);
+                        }
+                        id64s[amount++] = readLong(reader);
+                    }
+                    case "totalPages" -> totalPages = (int) readLong(reader);
+                    case "currentPage" -> currentPage = (int) readLong(reader);
+                    case "nextPageLink" -> hasNextPage = !reader.getElementText().isBlank();
+                    default -> {
+                        // Container elements like <members> are descended into, all other elements are skipped
+                    }
+                }
+            }
+
+            return new SteamGroupMemberListResponse(Arrays.copyOf(id64s, amount), totalPages, currentPage, hasNextPage);
+        } catch (XMLStreamException | NumberFormatException e) {
+            throw new IOException("Could not read member list: " + e.getMessage(), e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException ignored) {
+                    // Closing the reader doesn't close the stream, nothing to release
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The SteamID64s of the members on this page.
+     */
+    public long[] getId64s() {
+        return id64s;
+    }
+
+    /**
+     * @return The amount of pages of the whole member list, 0 if unknown.
+     */
+    public int getTotalPages() {
+        return totalPages;
+    }
+
+    /**
+     * @return The number of this page, 0 if unknown.
+     */
+    public int getCurrentPage() {
+        return currentPage;
+    }
+
+    /**
+     * @return True if the member list continues on a next page.
+     */
+    public boolean hasNextPage() {
+        return hasNextPage;
+    }
+
+    /**
+     * Parses the text of the current element as a non-negative number, directly from the characters of the reader.
+     * Leaves the reader at the end of the element.
+     */
+    private static long readLong(XMLStreamReader reader) throws XMLStreamException {
+        long value = 0;
+        int digits = 0;
+        while (true) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                break;
+            }
+            if (event == XMLStreamConstants.COMMENT || event == XMLStreamConstants.SPACE) {
+                continue;
+            }
+            if (event != XMLStreamConstants.CHARACTERS && event != XMLStreamConstants.CDATA) {
+                throw new XMLStreamException("Unexpected content in number", reader.getLocation());
+            }
+
+            char[] text = reader.getTextCharacters();
+            int end = reader.getTextStart() + reader.getTextLength();
+            for (int i = reader.getTextStart(); i < end; i++) {
+                char c = text[i];
+                if (c >= '0' && c <= '9') {
+                    if (++digits > 18) {
+                        throw new NumberFormatException("Number with more than 18 digits");
+                    }
+                    value = value * 10 + (c - '0');
+                } else if (!Character.isWhitespace(c)) {
+                    throw new NumberFormatException("Unexpected character '" + c + "' in number");
+                }
+            }
+        }
+        if (digits == 0) {
+            throw new NumberFormatException("Empty number");
+        }
+        return value;
+    }
+
+    /**
+     * Creates the factory for the readers, with DTDs and external entities disabled since the XML is untrusted.
+     */
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        return factory;
+    }
+}
@@ -0,0 +1,144 @@
+package at.emielregis.backend.data.responses;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Splits the comma-separated sticker names of a 'sticker_info' description line into single sticker names.
+ * Some sticker names contain commas themselves (e.g. "Run CT, Run"). These names are compiled into a trie over their
+ * comma-separated tokens, so the sticker names are split in a single pass over the line, without regular expressions.
+ */
+final class StickerNameMatcher {
+
+    /**
+     * A node of the trie. The children of the root are keyed by the first token of a name with trimmed and collapsed
+     * whitespace, all further children are keyed by the raw token as it appears between two commas.
+     */
+    private static final class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        private String name; // The full sticker name if a name ends at this node
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * Compiles the given sticker names.
+     *
+     * @param namesWithCommas The sticker names containing commas, exactly as they appear in a 'sticker_info' line.
+     */
+    StickerNameMatcher(List<String> namesWithCommas) {
+        for (String name : namesWithCommas) {
+            String[] tokens = name.split(",", -1);
+            Node node = root.children.computeIfAbsent(normalize(tokens[0], 0, tokens[0].length()), t -> new Node());
+            for (int i = 1; i < tokens.length; i++) {
+                node = node.children.computeIfAbsent(tokens[i], t -> new Node());
+            }
+            node.name = name;
+        }
+    }
+
+    /**
+     * Reads the sticker names containing commas from a classpath resource with one name per line.
+     * Empty lines and lines starting with '#' are ignored.
+     *
+     * @param resource The name of the resource.
+     * @return The compiled matcher.
+     */
+    static StickerNameMatcher fromResource(String resource) {
+        InputStream stream = Objects.requireNonNull(StickerNameMatcher.class.getClassLoader().getResourceAsStream(resource),
+            "Missing resource " + resource);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return new StickerNameMatcher(reader.lines()
+                .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                .toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Splits the sticker names between the given indices of a line.
+     *
+     * @param line The line containing the sticker names.
+     * @param from The index of the first character of the sticker names.
+     * @param to   The index after the last character of the sticker names.
+     * @return The sticker names, with trimmed and collapsed whitespace unless the name contains commas.
+     */
+    List<String> split(String line, int from, int to) {
+        while (from < to && line.charAt(from) <= ' ') from++;
+        while (to > from && line.charAt(to - 1) <= ' ') to--;
+
+        // boundaries of the comma-separated tokens, trailing empty tokens are dropped
+        List<int[]> tokens = new ArrayList<>();
+        int start = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || line.charAt(i) == ',') {
+                tokens.add(new int[]{start, i});
+                start = i + 1;
+            }
+        }
+        while (!tokens.isEmpty() && tokens.get(tokens.size() - 1)[0] == tokens.get(tokens.size() - 1)[1]) {
+            tokens.remove(tokens.size() - 1);
+        }
+
+        List<String> names = new ArrayList<>(tokens.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            String first = normalize(line, tokens.get(i)[0], tokens.get(i)[1]);
+
+            // follow the trie as far as possible and remember the longest name containing commas
+            String matched = null;
+            int matchedEnd = i;
+            Node node = root.children.get(first);
+            for (int j = i + 1; node != null; j++) {
+                if (node.name != null) {
+                    matched = node.name;
+                    matchedEnd = j - 1;
+                }
+                if (j == tokens.size() || node.children.isEmpty()) {
+                    break;
+                }
+                node = node.children.get(line.substring(tokens.get(j)[0], tokens.get(j)[1]));
+            }
+
+            if (matched != null) {
+                names.add(matched);
+                i = matchedEnd;
+            } else {
+                names.add(first);
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Trims the given part of a string and collapses consecutive spaces into a single space.
+     */
+    private static String normalize(String string, int from, int to) {
+        while (from < to && string.charAt(from) <= ' ') from++;
+        while (to > from && string.charAt(to - 1) <= ' ') to--;
+
+        StringBuilder builder = null;
+        for (int i = from; i < to; i++) {
+            char c = string.charAt(i);
+            if (c == ' ' && string.charAt(i - 1) == ' ') {
+                if (builder == null) {
+                    builder = new StringBuilder(to - from).append(string, from, i);
+                }
+                continue;
+            }
+            if (builder != null) {
+                builder.append(c);
+            }
+        }
+        return builder != null ? builder.toString() : string.substring(from, to);
+    }
+}
@@ -5,23 +5,14 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.util.List;
+
 /**
  * Repository interface for {@link CSGOAccount} entities.
  * Provides methods for performing CRUD operations and custom queries related to CSGO accounts.
  */
 public interface CSGOAccountRepository extends JpaRepository<CSGOAccount, Long> {
 
-    /**
-     * Checks if a CSGO account exists with the given Steam ID64.
-     *
-     * @param id The Steam ID64 of the account.
-     * @return {@code true} if an account with the given ID exists, {@code false} otherwise.
-     */
-    @Query(
-        value = "SELECT count(a) > 0 FROM CSGOAccount a WHERE a.id64 = :id"
-    )
-    boolean containsById64(@Param(value = "id") String id);
-
     /**
      * Counts the number of CSGO accounts that have a non-null inventory.
      *
@@ -31,4 +22,22 @@ public interface CSGOAccountRepository extends JpaRepository<CSGOAccount, Long>
         value = "SELECT count(a) FROM CSGOAccount a WHERE a.csgoInventory IS NOT NULL"
     )
     long countWithInventory();
+
+    /**
+     * Finds the highest row ID, used to load the Steam ID64s in ranges of row IDs.
+     *
+     * @return The highest row ID, or null if no account is stored.
+     */
+    @Query("SELECT max(a.id) FROM CSGOAccount a")
+    Long findMaxId();
+
+    /**
+     * Finds the Steam ID64s of the accounts within a range of row IDs.
+     *
+     * @param from The exclusive lower bound of the row IDs.
+     * @param to   The inclusive upper bound of the row IDs.
+     * @return The Steam ID64s of the accounts in the range.
+     */
+    @Query("SELECT a.id64 FROM CSGOAccount a WHERE a.id > :from AND a.id <= :to")
+    List<Long> findId64sInIdRange(@Param("from") Long from, @Param("to") Long to);
 }
@@ -0,0 +1,56 @@
+package at.emielregis.backend.repository;
+
+import at.emielregis.backend.data.entities.FailedAccount;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Repository interface for {@link FailedAccount} entities.
+ * Provides methods for managing and querying accounts whose inventory requests have to be retried.
+ */
+public interface FailedAccountRepository extends JpaRepository<FailedAccount, Long> {
+
+    /**
+     * Finds the failed account with the given Steam ID64.
+     *
+     * @param id64 The Steam ID64 of the account.
+     * @return The failed account, or {@code null} if the account has not failed.
+     */
+    FailedAccount findById64(Long id64);
+
+    /**
+     * Finds the failed accounts that may be retried at the given time, the longest waiting accounts first.
+     *
+     * @param now         The current time.
+     * @param maxAttempts Accounts with this many or more attempts have been given up on and are skipped.
+     * @param pageable    Limits the amount of accounts.
+     * @return The failed accounts that are due for a retry.
+     */
+    @Query("SELECT f FROM FailedAccount f WHERE f.notBefore <= :now AND f.attempts < :maxAttempts ORDER BY f.notBefore")
+    List<FailedAccount> findDue(@Param("now") LocalDateTime now, @Param("maxAttempts") int maxAttempts, Pageable pageable);
+
+    /**
+     * Counts the failed accounts that will still be retried.
+     *
+     * @param maxAttempts Accounts with this many or more attempts have been given up on.
+     * @return The count of pending failed accounts.
+     */
+    @Query("SELECT count(f) FROM FailedAccount f WHERE f.attempts < :maxAttempts")
+    long countPending(@Param("maxAttempts") int maxAttempts);
+
+    /**
+     * Deletes the failed account with the given Steam ID64.
+     *
+     * @param id64 The Steam ID64 of the account.
+     * @return The amount of deleted accounts.
+     */
+    @Modifying
+    @Query("DELETE FROM FailedAccount f WHERE f.id64 = :id64")
+    int deleteById64(@Param("id64") Long id64);
+}
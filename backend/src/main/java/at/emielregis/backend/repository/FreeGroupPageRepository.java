@@ -0,0 +1,39 @@
+package at.emielregis.backend.repository;
+
+import at.emielregis.backend.data.entities.FreeGroupPage;
+import at.emielregis.backend.data.entities.SteamGroup;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+/**
+ * Repository interface for {@link FreeGroupPage} entities.
+ * Provides methods for managing the pages of Steam groups that have to be requested again.
+ */
+public interface FreeGroupPageRepository extends JpaRepository<FreeGroupPage, Long> {
+
+    /**
+     * Finds the free pages of a Steam group.
+     *
+     * @param steamGroup The group.
+     * @return The free page numbers of the group.
+     */
+    @Query("SELECT f.page FROM FreeGroupPage f WHERE f.steamGroup = :steamGroup")
+    List<Integer> findPagesBySteamGroup(@Param("steamGroup") SteamGroup steamGroup);
+
+    /**
+     * Deletes a free page of a Steam group.
+     *
+     * @param steamGroup The group.
+     * @param page       The page number.
+     * @return The amount of deleted pages.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM FreeGroupPage f WHERE f.steamGroup = :steamGroup AND f.page = :page")
+    int deletePage(@Param("steamGroup") SteamGroup steamGroup, @Param("page") int page);
+}
@@ -1,10 +1,16 @@
 package at.emielregis.backend.repository;
 
 import at.emielregis.backend.data.entities.SteamAccount;
+import at.emielregis.backend.data.enums.MappingState;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -14,19 +20,139 @@ import java.util.List;
 public interface SteamAccountRepository extends JpaRepository<SteamAccount, Long> {
 
     /**
-     * Finds all Steam account IDs that are not mapped to a CSGO account.
+     * Finds the next accounts in a mapping state after a row ID, in the order of their row IDs (keyset paging).
+     * Reads only the requested accounts with a range scan of the index on the mapping state and the row ID.
      *
-     * @return A list of unmapped Steam account IDs.
+     * @param state    The mapping state of the accounts.
+     * @param cursor   The exclusive lower bound of the row IDs, the last row ID of the previous page.
+     * @param pageable The maximum amount of accounts, only the first page is used.
+     * @return The row ID and the Steam ID64 of each account.
      */
-    @Query("SELECT DISTINCT s.id64 FROM SteamAccount s LEFT JOIN CSGOAccount c ON c.id64 = s.id64 WHERE c IS NULL")
-    List<String> findAllUnmappedIDs();
+    @Query("SELECT s.id, s.id64 FROM SteamAccount s WHERE s.mappingState = :state AND s.id > :cursor ORDER BY s.id")
+    List<Object[]> findNextByState(@Param("state") MappingState state, @Param("cursor") long cursor, Pageable pageable);
 
     /**
-     * Checks if a Steam account exists with the given Steam ID64.
+     * Hands out accounts that have not been requested yet: sets the state of the given accounts to
+     * {@link MappingState#IN_FLIGHT} if they are still {@link MappingState#DISCOVERED}.
      *
-     * @param current The Steam ID64 to check.
-     * @return {@code true} if the account exists, {@code false} otherwise.
+     * @param ids  The row IDs of the accounts.
+     * @param time The time the accounts are handed out.
+     * @return The amount of accounts handed out.
      */
-    @Query("SELECT count(s) > 0 FROM SteamAccount s WHERE s.id64 = :id")
-    boolean containsById64(@Param("id") String current);
+    @Transactional
+    @Modifying
+    @Query("UPDATE SteamAccount s SET s.mappingState = at.emielregis.backend.data.enums.MappingState.IN_FLIGHT, s.lastAttempt = :time " +
+        "WHERE s.id IN :ids AND s.mappingState = at.emielregis.backend.data.enums.MappingState.DISCOVERED")
+    int markInFlight(@Param("ids") Collection<Long> ids, @Param("time") LocalDateTime time);
+
+    /**
+     * Finds the Steam account IDs of the given accounts that are in the given state.
+     *
+     * @param ids   The row IDs of the accounts.
+     * @param state The mapping state of the accounts.
+     * @return A list of Steam account IDs.
+     */
+    @Query("SELECT s.id64 FROM SteamAccount s WHERE s.id IN :ids AND s.mappingState = :state")
+    List<Long> findId64sByIdsAndState(@Param("ids") Collection<Long> ids, @Param("state") MappingState state);
+
+    /**
+     * Sets the mapping state of accounts.
+     *
+     * @param ids64 The Steam ID64s of the accounts.
+     * @param state The new mapping state.
+     * @param time  The time of the last request for the accounts.
+     * @return The amount of updated accounts.
+     */
+    @Modifying
+    @Query("UPDATE SteamAccount s SET s.mappingState = :state, s.lastAttempt = :time WHERE s.id64 IN :ids64")
+    int updateMappingState(@Param("ids64") Collection<Long> ids64, @Param("state") MappingState state, @Param("time") LocalDateTime time);
+
+    /**
+     * Sets the mapping state of accounts that are still {@link MappingState#IN_FLIGHT}. Accounts whose state has
+     * been set by their mapping or failure already are left untouched.
+     *
+     * @param ids64 The Steam ID64s of the accounts.
+     * @param state The new mapping state.
+     * @return The amount of updated accounts.
+     */
+    @Modifying
+    @Query("UPDATE SteamAccount s SET s.mappingState = :state " +
+        "WHERE s.id64 IN :ids64 AND s.mappingState = at.emielregis.backend.data.enums.MappingState.IN_FLIGHT")
+    int replaceInFlightState(@Param("ids64") Collection<Long> ids64, @Param("state") MappingState state);
+
+    /**
+     * Sets the mapping state of all accounts in one state to another state.
+     *
+     * @param from The current mapping state of the accounts.
+     * @param to   The new mapping state.
+     * @return The amount of updated accounts.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SteamAccount s SET s.mappingState = :to WHERE s.mappingState = :from")
+    int replaceMappingState(@Param("from") MappingState from, @Param("to") MappingState to);
+
+    /**
+     * Assigns a mapping state to the accounts stored before the state was introduced, based on whether they have
+     * been mapped or failed.
+     *
+     * @param mapped     The state of accounts stored as CSGO account.
+     * @param failed     The state of accounts stored as failed account.
+     * @param discovered The state of all other accounts.
+     * @return The amount of updated accounts.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SteamAccount s SET s.mappingState = CASE " +
+        "WHEN EXISTS (SELECT c FROM CSGOAccount c WHERE c.id64 = s.id64) THEN :mapped " +
+        "WHEN EXISTS (SELECT f FROM FailedAccount f WHERE f.id64 = s.id64) THEN :failed " +
+        "ELSE :discovered END WHERE s.mappingState IS NULL")
+    int initializeMappingStates(@Param("mapped") MappingState mapped, @Param("failed") MappingState failed, @Param("discovered") MappingState discovered);
+
+    /**
+     * Counts the accounts in a mapping state using the index on the state.
+     *
+     * @param state The mapping state.
+     * @return The amount of accounts in the state.
+     */
+    long countByMappingState(MappingState state);
+
+    /**
+     * Stores an account for every Steam ID64 that is not stored yet, with a single statement. The ID64s are passed
+     * to H2's TABLE function as one array, the row IDs are taken from the sequence Hibernate uses as well.
+     * Accounts inserted by a concurrent transaction that has not committed yet violate the unique constraint.
+     * <p>
+     * The statement is H2 specific and bound to the ID generator of {@link SteamAccount}: its plain
+     * {@code @GeneratedValue(strategy = GenerationType.SEQUENCE)} makes Hibernate use its default sequence
+     * 'hibernate_sequence' with an increment of 1, so rows inserted here and by Hibernate never get the same ID.
+     * Changing the generator (e.g. a named sequence or a bigger allocation size) requires changing this statement.
+     *
+     * @param ids64 The distinct Steam ID64s of the accounts, must not be empty.
+     * @param state The ordinal of the mapping state of the new accounts.
+     * @return The amount of stored accounts.
+     */
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO steam_account (id, id64, mapping_state) " +
+        "SELECT NEXT VALUE FOR hibernate_sequence, t.x, :state FROM TABLE(x BIGINT = (:ids64)) t " +
+        "WHERE NOT EXISTS (SELECT 1 FROM steam_account s WHERE s.id64 = t.x)", nativeQuery = true)
+    int insertMissing(@Param("ids64") Collection<Long> ids64, @Param("state") int state);
+
+    /**
+     * Finds the highest row ID, used to load the Steam ID64s in ranges of row IDs.
+     *
+     * @return The highest row ID, or null if no account is stored.
+     */
+    @Query("SELECT max(s.id) FROM SteamAccount s")
+    Long findMaxId();
+
+    /**
+     * Finds the Steam ID64s of the accounts within a range of row IDs.
+     *
+     * @param from The exclusive lower bound of the row IDs.
+     * @param to   The inclusive upper bound of the row IDs.
+     * @return The Steam ID64s of the accounts in the range.
+     */
+    @Query("SELECT s.id64 FROM SteamAccount s WHERE s.id > :from AND s.id <= :to")
+    List<Long> findId64sInIdRange(@Param("from") Long from, @Param("to") Long to);
 }
@@ -2,10 +2,38 @@ package at.emielregis.backend.repository;
 
 import at.emielregis.backend.data.entities.SteamGroup;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Repository interface for {@link SteamGroup} entities.
  * Provides basic CRUD operations for Steam groups.
  */
 public interface SteamGroupRepository extends JpaRepository<SteamGroup, Long> {
+
+    /**
+     * Sets the highest page handed out for a Steam group without loading or rewriting the rest of the group.
+     *
+     * @param id          The ID of the group.
+     * @param highestPage The highest page handed out.
+     * @return The amount of updated groups.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SteamGroup g SET g.highestPage = :highestPage WHERE g.id = :id")
+    int updateHighestPage(@Param("id") Long id, @Param("highestPage") int highestPage);
+
+    /**
+     * Sets the amount of pages of a Steam group's member list.
+     *
+     * @param id         The ID of the group.
+     * @param totalPages The amount of pages.
+     * @return The amount of updated groups.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SteamGroup g SET g.totalPages = :totalPages WHERE g.id = :id")
+    int updateTotalPages(@Param("id") Long id, @Param("totalPages") int totalPages);
 }
@@ -0,0 +1,187 @@
+package at.emielregis.backend.runners.httpmapper;
+
+import at.emielregis.backend.data.entities.FailedAccount;
+import at.emielregis.backend.service.FailedAccountService;
+import at.emielregis.backend.service.StatisticsService;
+import at.emielregis.backend.service.SteamAccountService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.lang.invoke.MethodHandles;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Central job queue for the account mapping workers.
+ * All workers share a single queue of IDs to map and a backlog of jobs that have to be retried, so any worker
+ * that has a free proxy slot takes the next job instead of every worker holding on to its own batch of IDs.
+ * The queue is refilled by a single worker at a time while the others wait for it. New accounts are found by the
+ * {@link SteamGroupMapper} stage ahead of demand, the workers only wait for it if no unmapped account is left at all.
+ * Failed jobs are stored with {@link FailedAccountService} and put into the backlog again once they are due,
+ * so they survive restarts and don't depend on the unmapped IDs being reloaded.
+ */
+@Component
+public class AccountMappingScheduler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final SteamGroupMapper steamGroupMapper;
+    private final SteamAccountService steamAccountService;
+    private final FailedAccountService failedAccountService;
+
+    private final Queue<MappingJob> jobs = new ConcurrentLinkedQueue<>(); // IDs that have not been requested yet
+    private final Queue<MappingJob> backlog = new ConcurrentLinkedQueue<>(); // Failed jobs, served before new IDs
+    private final ReentrantLock refillLock = new ReentrantLock();
+    private final AtomicLong nextRetryPoll = new AtomicLong(System.nanoTime()); // Earliest time to look for due retries
+
+    private final AtomicLong scheduledJobs = new AtomicLong();
+    private final AtomicLong retriedJobs = new AtomicLong();
+    private final AtomicLong droppedJobs = new AtomicLong();
+
+    @Value("${user-properties.max-ids-per-batch}")
+    private int MAX_IDS_PER_BATCH; // Max IDs added to the queue per refill
+
+    @Value("${user-properties.group-crawler-poll-seconds}")
+    private long GROUP_CRAWLER_POLL_SECONDS; // Max time to wait for the group crawler before looking for IDs again
+
+    @Value("${user-properties.retry-poll-seconds}")
+    private long RETRY_POLL_SECONDS; // Interval in which due retries are loaded while the backlog is empty
+
+    public AccountMappingScheduler(SteamGroupMapper steamGroupMapper,
+                                   SteamAccountService steamAccountService,
+                                   FailedAccountService failedAccountService,
+                                   StatisticsService statisticsService) {
+        this.steamGroupMapper = steamGroupMapper;
+        this.steamAccountService = steamAccountService;
+        this.failedAccountService = failedAccountService;
+        statisticsService.register("account mapping scheduler", this::getStatistics);
+    }
+
+    /**
+     * A single request for the inventory of an account.
+     *
+     * @param id64    The SteamID64 of the account.
+     * @param attempt The number of the attempt, starting at 1.
+     */
+    public record MappingJob(long id64, int attempt) {
+    }
+
+    /**
+     * Takes the next job, preferring jobs from the retry backlog. If no job is left the queue is refilled with
+     * new IDs. If no unmapped account is stored, waits for the group crawler to find new accounts.
+     *
+     * @param remaining The amount of inventories that are still missing, limits the size of the refill.
+     * @return The next job, or null if no IDs are left to map.
+     */
+    public MappingJob nextJob(long remaining) {
+        while (true) {
+            MappingJob job = poll();
+            if (job != null) {
+                return job;
+            }
+
+            refillLock.lock();
+            try {
+                // another worker may have refilled the queue while this one was waiting for the lock
+                job = poll();
+                if (job != null) {
+                    return job;
+                }
+                if (!refill(remaining)) {
+                    return null;
+                }
+            } finally {
+                refillLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Stores a failed job to be retried later, unless it already used up all of its attempts.
+     *
+     * @param job The failed job.
+     */
+    public void retry(MappingJob job) {
+        if (failedAccountService.recordFailure(job.id64(), job.attempt())) {
+            retriedJobs.incrementAndGet();
+        } else {
+            droppedJobs.incrementAndGet();
+        }
+    }
+
+    /**
+     * Marks a job as done, removing the stored failures of retried jobs.
+     *
+     * @param job The successful job.
+     */
+    public void complete(MappingJob job) {
+        if (job.attempt() > 1) {
+            failedAccountService.remove(job.id64());
+        }
+    }
+
+    /**
+     * Summarizes the queued, retried and dropped jobs.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d queued, %d in backlog, %d scheduled, %d retried, %d dropped, %d stored for retry",
+            jobs.size(), backlog.size(), scheduledJobs.get(), retriedJobs.get(), droppedJobs.get(), failedAccountService.countPending());
+    }
+
+    private MappingJob poll() {
+        if (backlog.isEmpty()) {
+            loadDueRetries();
+        }
+
+        MappingJob job = backlog.poll();
+        if (job == null) {
+            job = jobs.poll();
+        }
+        if (job != null) {
+            scheduledJobs.incrementAndGet();
+        }
+        return job;
+    }
+
+    private void loadDueRetries() {
+        long now = System.nanoTime();
+        long next = nextRetryPoll.get();
+        // only a single worker loads the due retries per interval
+        if (now - next < 0 || !nextRetryPoll.compareAndSet(next, now + TimeUnit.SECONDS.toNanos(RETRY_POLL_SECONDS))) {
+            return;
+        }
+
+        for (FailedAccount account : failedAccountService.claimDue(MAX_IDS_PER_BATCH)) {
+            backlog.add(new MappingJob(account.getId64(), account.getAttempts()));
+        }
+    }
+
+    private boolean refill(long remaining) {
+        long batchAmount = Math.min(remaining, MAX_IDS_PER_BATCH);
+        if (batchAmount <= 0) {
+            return false;
+        }
+
+        long[] ids = steamAccountService.findNextIds(batchAmount);
+        while (ids.length == 0 && backlog.isEmpty()) {
+            LOGGER.info("No unmapped accounts left, waiting for the group crawler.");
+            if (!steamGroupMapper.awaitAccounts(GROUP_CRAWLER_POLL_SECONDS, TimeUnit.SECONDS)) {
+                break;
+            }
+            loadDueRetries();
+            ids = steamAccountService.findNextIds(batchAmount);
+        }
+        for (long id64 : ids) {
+            jobs.add(new MappingJob(id64, 1));
+        }
+
+        LOGGER.info("Scheduled {} new accounts.", ids.length);
+        return ids.length > 0 || !backlog.isEmpty();
+    }
+}
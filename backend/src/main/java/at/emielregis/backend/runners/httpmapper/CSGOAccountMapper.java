@@ -3,16 +3,24 @@ package at.emielregis.backend.runners.httpmapper;
 import at.emielregis.backend.data.entities.CSGOAccount;
 import at.emielregis.backend.data.entities.CSGOInventory;
 import at.emielregis.backend.data.enums.HttpResponseMappingStatus;
+import at.emielregis.backend.data.enums.MappingState;
 import at.emielregis.backend.service.*;
+import at.emielregis.backend.service.proxy.ProxyClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PostConstruct;
 import java.lang.invoke.MethodHandles;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 /**
  * Handles the mapping of CSGO accounts and their inventories.
@@ -26,14 +34,17 @@ public class CSGOAccountMapper {
     private final CSGOAccountService csgoAccountService;
     private final CSGOInventoryService csgoInventoryService;
     private final CSGOInventoryMapper csgoInventoryMapper;
-    private final SteamAccountService steamAccountService;
+    private final AccountMappingScheduler accountMappingScheduler;
     private final SteamGroupMapper steamGroupMapper;
     private final ItemService itemService;
+    private final CSGOAccountBatchService csgoAccountBatchService;
     private final ProxyService proxyService;
-    private final BusyWaitingService busyWaitingService;
+    private final StatisticsService statisticsService;
+    private final AccountCounters accountCounters;
+    private final SteamAccountService steamAccountService;
+    private final ResponseHandlerExecutor responseHandlerExecutor;
 
-    // Queue for accounts to be persisted
-    private final List<CSGOAccount> accountsToPersist = Collections.synchronizedList(new ArrayList<>());
+    private PersistenceQueue<CSGOAccount> accountsToPersist; // Queue for accounts to be persisted
 
     @Value("${user-properties.max-csgo-accounts}")
     private long MAX_CSGO_ACCOUNTS; // Max allowed mapped inventories
@@ -44,36 +55,65 @@ public class CSGOAccountMapper {
     @Value("${user-properties.min-items-per-account}")
     private long MIN_ITEMS_FOR_ACCOUNT; // Minimum items required for inventory to be stored
 
-    @Value("${user-properties.max-ids-per-batch}")
-    private int MAX_IDS_PER_BATCH; // Max IDs to process in a batch
-
     @Value("${user-properties.amount-of-threads}")
     private int AMOUNT_OF_THREADS; // Number of threads to use
 
     @Value("${user-properties.amount-of-proxies}")
     private int AMOUNT_OF_PROXIES; // Number of proxies to use
 
-    private long alreadyMappedAccounts = 0; // Tracks mapped accounts
-    private long alreadyMappedAccountsWithInventories = 0; // Tracks mapped accounts with inventories
+    @Value("${user-properties.persist-queue-capacity}")
+    private int PERSIST_QUEUE_CAPACITY; // Max fetched accounts waiting to be persisted
+
+    @Value("${user-properties.persist-batch-size}")
+    private int PERSIST_BATCH_SIZE; // Max accounts written in a single transaction
+
+    @Value("${user-properties.persist-commit-interval-millis}")
+    private long PERSIST_COMMIT_INTERVAL_MILLIS; // Max time to wait for a batch to fill up before writing it
+
+    @Value("${user-properties.persist-writer-threads}")
+    private int PERSIST_WRITER_THREADS; // Number of threads writing batches
+
+    private final AtomicLong sessionAccounts = new AtomicLong(); // Accounts accepted for persisting in this session
+    private final AtomicLong mappedInventories = new AtomicLong(); // Stored inventories plus the ones accepted for persisting
     private volatile boolean stop = false; // Flag to stop all threads
+    private final AtomicInteger activeMappingThreads = new AtomicInteger(); // Threads that may still queue accounts
+    private final Set<Long> acceptedId64s = ConcurrentHashMap.newKeySet(); // Accepted by a writer, not committed yet
+    private final Map<Long, Integer> fetchedAttempts = new ConcurrentHashMap<>(); // Attempt of each queued account
 
     public CSGOAccountMapper(
         CSGOAccountService csgoAccountService,
         CSGOInventoryService csgoInventoryService,
         CSGOInventoryMapper csgoInventoryMapper,
-        SteamAccountService steamAccountService,
+        AccountMappingScheduler accountMappingScheduler,
         SteamGroupMapper steamGroupMapper,
         ItemService itemService,
+        CSGOAccountBatchService csgoAccountBatchService,
         ProxyService proxyService,
-        BusyWaitingService busyWaitingService) {
+        StatisticsService statisticsService,
+        AccountCounters accountCounters,
+        SteamAccountService steamAccountService,
+        ResponseHandlerExecutor responseHandlerExecutor) {
         this.csgoAccountService = csgoAccountService;
         this.csgoInventoryService = csgoInventoryService;
         this.csgoInventoryMapper = csgoInventoryMapper;
-        this.steamAccountService = steamAccountService;
+        this.accountMappingScheduler = accountMappingScheduler;
         this.steamGroupMapper = steamGroupMapper;
         this.itemService = itemService;
+        this.csgoAccountBatchService = csgoAccountBatchService;
         this.proxyService = proxyService;
-        this.busyWaitingService = busyWaitingService;
+        this.statisticsService = statisticsService;
+        this.accountCounters = accountCounters;
+        this.steamAccountService = steamAccountService;
+        this.responseHandlerExecutor = responseHandlerExecutor;
+    }
+
+    /**
+     * Creates the queue for fetched accounts once the configuration is injected.
+     */
+    @PostConstruct
+    private void init() {
+        accountsToPersist = new PersistenceQueue<>(PERSIST_QUEUE_CAPACITY);
+        statisticsService.register("accounts to persist", accountsToPersist::getStatistics);
     }
 
     /**
@@ -81,62 +121,58 @@ public class CSGOAccountMapper {
      * Handles threads for account processing and proxy management.
      */
     public void start() {
-        alreadyMappedAccountsWithInventories = csgoAccountService.countWithInventory();
-        LOGGER.info("Starting with {} mapped inventories.", alreadyMappedAccountsWithInventories);
+        mappedInventories.set(accountCounters.get(AccountCounters.Counter.WITH_INVENTORY));
+        LOGGER.info("Starting with {} mapped inventories.", mappedInventories.get());
 
-        if (MAX_ACCOUNTS_FOR_SESSION <= 0 || alreadyMappedAccounts >= MAX_CSGO_ACCOUNTS) {
+        if (MAX_ACCOUNTS_FOR_SESSION <= 0 || mappedInventories.get() >= MAX_CSGO_ACCOUNTS) {
             return;
         }
 
-        // Thread for processing persisted accounts
-        proxyService.addEmptyThread(() -> {
-            while (!stop || !accountsToPersist.isEmpty()) {
-                if (accountsToPersist.isEmpty()) {
-                    busyWaitingService.wait(5);
-                    continue;
-                }
-
-                LOGGER.info("Processing accounts in queue: {}", accountsToPersist.size());
-                CSGOAccount acc = accountsToPersist.get(0);
+        activeMappingThreads.set(AMOUNT_OF_THREADS);
 
-                if (alreadyMapped(acc.getId64())) {
-                    accountsToPersist.remove(0);
-                    continue;
-                }
-
-                if (acc.getCsgoInventory() != null) {
-                    if (++alreadyMappedAccountsWithInventories > MAX_CSGO_ACCOUNTS) {
-                        --alreadyMappedAccountsWithInventories;
-                        return;
+        // Threads for persisting accounts in batches, run until all mapping threads are done and the queue is empty,
+        // also when the workers are stopped, so the accounts fetched so far are not lost
+        for (int i = 0; i < PERSIST_WRITER_THREADS; i++) {
+            proxyService.addEmptyThread(() -> {
+                while (activeMappingThreads.get() > 0 || !accountsToPersist.isEmpty()) {
+                    List<CSGOAccount> batch = nextBatch();
+                    if (!batch.isEmpty()) {
+                        LOGGER.info("Processing accounts in queue: {}", batch.size());
                     }
 
-                    // Process valid inventories
-                    if (acc.getCsgoInventory().getTotalItemAmount() >= MIN_ITEMS_FOR_ACCOUNT) {
-                        CSGOInventory inv = acc.getCsgoInventory();
-                        inv.setItemCollections(itemService.convert(inv.getItemCollections()));
-                        itemService.saveAll(inv.getItemCollections());
-                        csgoInventoryService.save(acc.getCsgoInventory());
-                    } else {
-                        LOGGER.info("Inventory does not meet the minimum item requirement.");
-                        acc.setCsgoInventory(null);
-                        --alreadyMappedAccountsWithInventories;
+                    // Accounts without inventory are private, prepare also removes inventories with too few items
+                    Set<Long> privateId64s = batch.stream()
+                        .filter(acc -> acc.getCsgoInventory() == null)
+                        .map(CSGOAccount::getId64)
+                        .collect(Collectors.toSet());
+                    Map<MappingState, List<Long>> skipped = new EnumMap<>(MappingState.class);
+                    List<CSGOAccount> accepted = batch.stream().filter(acc -> prepare(acc, skipped)).toList();
+                    if (!accepted.isEmpty()) {
+                        persist(accepted, privateId64s);
                     }
+                    skipped.forEach((state, id64s) -> steamAccountService.releaseInFlight(id64s, state));
+                    batch.forEach(acc -> fetchedAttempts.remove(acc.getId64()));
                 }
+            });
+        }
 
-                ++alreadyMappedAccounts;
-                csgoAccountService.save(acc);
-                accountsToPersist.remove(0);
-            }
-        });
-
-        // Threads for proxy-based account mapping
-        proxyService.addRestTemplateConsumerThreads(AMOUNT_OF_THREADS, AMOUNT_OF_PROXIES,
-            templates -> {
-                while (!stop) {
-                    mapNextPlayers(templates);
+        // Threads crawling steam groups for new accounts with their own proxies, stopped with the last mapping thread
+        steamGroupMapper.start();
+
+        // Threads for proxy-based account mapping, all of them share the same proxies
+        ProxyClient[] clients = proxyService.createClients(AMOUNT_OF_PROXIES);
+        for (int i = 0; i < AMOUNT_OF_THREADS; i++) {
+            proxyService.addEmptyThread(() -> {
+                try {
+                    mapPlayers(clients);
+                } finally {
+                    if (activeMappingThreads.decrementAndGet() == 0) {
+                        steamGroupMapper.stop();
+                    }
                 }
                 LOGGER.info("Thread execution complete.");
             });
+        }
 
         proxyService.await();
 
@@ -148,84 +184,190 @@ public class CSGOAccountMapper {
     }
 
     /**
-     * Maps the next batch of players' accounts using proxies.
+     * Takes the next batch of fetched accounts from the queue. Waits until the batch is full or the commit interval
+     * has passed, whichever comes first.
      *
-     * @param templates The RestTemplate instances for sending HTTP requests.
+     * @return The next batch, empty if no account was fetched within the commit interval.
      */
-    public void mapNextPlayers(RestTemplate[] templates) {
-        LOGGER.info("Mapping next batch of players.");
-        int proxyIndex = 0;
+    private List<CSGOAccount> nextBatch() {
+        List<CSGOAccount> batch = new ArrayList<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PERSIST_COMMIT_INTERVAL_MILLIS);
+
+        while (batch.size() < PERSIST_BATCH_SIZE) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || (activeMappingThreads.get() == 0 && accountsToPersist.isEmpty())) {
+                break;
+            }
+            batch.addAll(accountsToPersist.drain(PERSIST_BATCH_SIZE - batch.size(), remaining, TimeUnit.NANOSECONDS));
+        }
+        return batch;
+    }
 
-        steamGroupMapper.findAccounts(templates);
-        List<String> nextAccounts = getIDs();
+    /**
+     * Writes a batch of accepted accounts and releases their claims afterwards. If the batch can't be written, the
+     * reservations made by {@link #prepare(CSGOAccount, Map)} are undone and its accounts are stored to be fetched again
+     * later instead of failing all workers. They keep the attempt they were fetched with, so an account that can never
+     * be written is given up on like one that can never be fetched.
+     *
+     * @param accepted     The accounts accepted by {@link #prepare(CSGOAccount, Map)}.
+     * @param privateId64s  The SteamID64s of the accounts with a private inventory.
+     */
+    private void persist(List<CSGOAccount> accepted, Set<Long> privateId64s) {
+        try {
+            csgoAccountBatchService.saveAll(accepted, privateId64s);
+            csgoAccountService.onSaved(accepted);
+        } catch (RuntimeException e) {
+            LOGGER.error("Persisting {} accounts failed, they are fetched again later: {}", accepted.size(), e.getMessage());
+            sessionAccounts.addAndGet(-accepted.size());
+            mappedInventories.addAndGet(-accepted.stream().filter(acc -> acc.getCsgoInventory() != null).count());
+            accepted.forEach(acc -> accountMappingScheduler.retry(
+                new AccountMappingScheduler.MappingJob(acc.getId64(), fetchedAttempts.getOrDefault(acc.getId64(), 1))));
+        } finally {
+            accepted.forEach(acc -> acceptedId64s.remove(acc.getId64()));
+        }
+    }
 
-        if (nextAccounts.isEmpty()) {
-            LOGGER.info("Mapping complete. Maximum accounts reached.");
-            stop = true;
-            return;
+    /**
+     * Checks whether a fetched account should be persisted and converts its inventory to persistent entities.
+     * Every account is claimed by a single writer before it is accepted, so an account fetched twice is never
+     * written by two writers at once. The claim is released by {@link #persist(List, Set)}.
+     * Inventories below the minimum amount of items are dropped, the account itself is still persisted.
+     * Accounts fetched after the maximum amount of inventories has been reached are discarded, so the mapping
+     * threads never wait for a full queue that is no longer drained.
+     *
+     * @param acc     The fetched account.
+     * @param skipped Collects the skipped accounts by the mapping state they are released with, accounts claimed by
+     *                another writer get their state from that writer.
+     * @return True if the account should be persisted, otherwise false.
+     */
+    private boolean prepare(CSGOAccount acc, Map<MappingState, List<Long>> skipped) {
+        if (alreadyMapped(acc.getId64())) {
+            skipped.computeIfAbsent(MappingState.MAPPED, state -> new ArrayList<>()).add(acc.getId64());
+            return false;
+        }
+        if (!acceptedId64s.add(acc.getId64())) {
+            return false;
         }
 
-        for (String id64 : nextAccounts) {
-            if (stop) break;
+        CSGOInventory inv = acc.getCsgoInventory();
+        boolean keepInventory = inv != null && inv.getTotalItemAmount() >= MIN_ITEMS_FOR_ACCOUNT;
+        if (inv != null && !keepInventory) {
+            LOGGER.info("Inventory does not meet the minimum item requirement.");
+            acc.setCsgoInventory(null);
+        }
+
+        // Reserves a slot for the inventory, so concurrent writers never accept more than the maximum
+        if (keepInventory && mappedInventories.getAndUpdate(amount -> amount < MAX_CSGO_ACCOUNTS ? amount + 1 : amount) >= MAX_CSGO_ACCOUNTS) {
+            stop = true;
+            acceptedId64s.remove(acc.getId64());
+            skipped.computeIfAbsent(MappingState.DISCOVERED, state -> new ArrayList<>()).add(acc.getId64());
+            return false;
+        }
+        sessionAccounts.incrementAndGet();
 
-            mapUser(id64, templates[proxyIndex]);
-            proxyIndex = (proxyIndex + 1) % templates.length;
+        if (keepInventory) {
+            inv.setItemCollections(itemService.convert(inv.getItemCollections()));
         }
+        return true;
     }
 
     /**
-     * Retrieves the next set of SteamAccount IDs to map.
+     * Maps players' accounts until no IDs are left or a mapping limit is reached.
+     * The jobs are taken from the shared {@link AccountMappingScheduler} and sent with whichever of the shared proxies
+     * is ready and has a free in-flight slot, so slow proxies don't hold back IDs that other proxies could map.
+     * The inventories are fetched asynchronously, failed requests are stored by the scheduler to be retried later.
+     * Storing the jobs queries the database, so it runs on the {@link ResponseHandlerExecutor}.
      *
-     * @return A list of account IDs.
+     * @param clients The proxy clients for sending HTTP requests, shared with the other mapping threads.
      */
-    private List<String> getIDs() {
-        long remaining = MAX_CSGO_ACCOUNTS - alreadyMappedAccountsWithInventories;
-        long batchAmount = Math.min(Math.max(remaining / proxyService.maxThreads(), 1), MAX_IDS_PER_BATCH);
+    public void mapPlayers(ProxyClient[] clients) {
+        List<CompletableFuture<HttpResponseMappingStatus>> requests = new ArrayList<>();
 
-        if (batchAmount <= 0) {
-            return List.of();
+        while (!stop && !proxyService.isStopped()) {
+            AccountMappingScheduler.MappingJob job = accountMappingScheduler.nextJob(MAX_CSGO_ACCOUNTS - mappedInventories.get());
+
+            if (job == null) {
+                LOGGER.info("Mapping complete. Maximum accounts reached.");
+                stop = true;
+                break;
+            }
+
+            if (!shouldMap(job.id64())) {
+                continue;
+            }
+
+            // waits only if none of the proxies is ready and has a free in-flight slot
+            ProxyClient client = proxyService.awaitReady(clients);
+            requests.add(mapUserAsync(job, client).whenCompleteAsync((status, ex) -> {
+                client.release();
+                if (status != HttpResponseMappingStatus.SUCCESS) {
+                    accountMappingScheduler.retry(job);
+                }
+            }, responseHandlerExecutor.get()));
+            requests.removeIf(CompletableFuture::isDone);
         }
 
-        return steamAccountService.findNextIds(batchAmount);
+        requests.forEach(CompletableFuture::join);
     }
 
     /**
-     * Maps a specific user account to create a CSGOAccount and associated inventory.
+     * Checks the mapping limits and whether the account still has to be mapped. Skipped accounts are released, so
+     * they don't stay {@link MappingState#IN_FLIGHT}: accounts skipped for a limit are mapped in a later session.
      *
-     * @param id64     The SteamID64 of the user.
-     * @param template The RestTemplate for HTTP calls.
+     * @param id64 The SteamID64 of the user.
+     * @return True if the account should be mapped, otherwise false.
      */
-    @Transactional
-    public void mapUser(String id64, RestTemplate template) {
-        if (alreadyMappedAccountsWithInventories >= MAX_CSGO_ACCOUNTS || stop) {
+    private boolean shouldMap(long id64) {
+        if (mappedInventories.get() >= MAX_CSGO_ACCOUNTS || stop) {
             stop = true;
-            return;
+            steamAccountService.releaseInFlight(List.of(id64), MappingState.DISCOVERED);
+            return false;
         }
 
-        if (alreadyMappedAccounts >= MAX_ACCOUNTS_FOR_SESSION) {
+        if (sessionAccounts.get() >= MAX_ACCOUNTS_FOR_SESSION) {
             LOGGER.info("Session limit reached.");
             stop = true;
-            return;
+            steamAccountService.releaseInFlight(List.of(id64), MappingState.DISCOVERED);
+            return false;
         }
 
         if (alreadyMapped(id64)) {
             LOGGER.info("Account already mapped: {}", id64);
-            return;
+            steamAccountService.releaseInFlight(List.of(id64), MappingState.MAPPED);
+            return false;
         }
 
-        LOGGER.info("Mapping account: {}", id64);
-
-        CSGOAccount.CSGOAccountBuilder accountBuilder = CSGOAccount.builder().id64(id64);
+        return true;
+    }
 
-        if (csgoInventoryMapper.getInventory(accountBuilder, id64, template) != HttpResponseMappingStatus.SUCCESS) {
-            return;
-        }
+    /**
+     * Maps a specific user account to create a CSGOAccount and associated inventory without blocking.
+     * The account is queued for persisting once its inventory has been fetched. Queueing waits while the queue is full
+     * and may update the account, so it runs on the {@link ResponseHandlerExecutor}, not on the HTTP client.
+     * The job is completed before the account is queued, so the writers can store it for a retry if it can't be written.
+     *
+     * @param job    The job of the account.
+     * @param client The proxy client for HTTP calls.
+     * @return A future completing with the status of the inventory fetch request.
+     */
+    private CompletableFuture<HttpResponseMappingStatus> mapUserAsync(AccountMappingScheduler.MappingJob job, ProxyClient client) {
+        long id64 = job.id64();
+        LOGGER.info("Mapping account: {}", id64);
 
-        if (alreadyMapped(id64)) {
-            return;
-        }
+        return csgoInventoryMapper.getInventoryAsync(id64, client).handleAsync((inventory, ex) -> {
+            if (ex != null) {
+                return CSGOInventoryMapper.statusOf(ex);
+            }
 
-        accountsToPersist.add(accountBuilder.build());
+            accountMappingScheduler.complete(job);
+            if (!alreadyMapped(id64)) {
+                fetchedAttempts.put(id64, job.attempt());
+                accountsToPersist.put(CSGOAccount.builder().id64(id64).csgoInventory(inventory).build());
+            } else {
+                steamAccountService.releaseInFlight(List.of(id64), MappingState.MAPPED);
+            }
+            return HttpResponseMappingStatus.SUCCESS;
+        }, responseHandlerExecutor.get());
     }
 
     /**
@@ -234,7 +376,7 @@ public class CSGOAccountMapper {
      * @param id64 The SteamID64 of the account.
      * @return True if mapped, otherwise false.
      */
-    private boolean alreadyMapped(String id64) {
+    private boolean alreadyMapped(long id64) {
         return csgoAccountService.containsById64(id64);
     }
 
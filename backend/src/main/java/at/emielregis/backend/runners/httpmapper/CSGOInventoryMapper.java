@@ -1,26 +1,36 @@
 package at.emielregis.backend.runners.httpmapper;
 
-import at.emielregis.backend.data.entities.CSGOAccount;
 import at.emielregis.backend.data.entities.CSGOInventory;
 import at.emielregis.backend.data.entities.items.ItemCollection;
 import at.emielregis.backend.data.enums.HttpResponseMappingStatus;
 import at.emielregis.backend.data.responses.HttpInventoryResponse;
-import at.emielregis.backend.service.BusyWaitingService;
+import at.emielregis.backend.service.ResponseHandlerExecutor;
 import at.emielregis.backend.service.UrlProvider;
+import at.emielregis.backend.service.proxy.ProxyClient;
+import at.emielregis.backend.service.proxy.ProxyRateLimiter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.lang.invoke.MethodHandles;
+import java.net.http.HttpResponse;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Responsible for mapping CS:GO inventories for Steam accounts.
- * Fetches and combines inventory items from the Steam API.
+ * Fetches and combines inventory items from the Steam API without blocking, with the asynchronous client of a
+ * {@link ProxyClient}.
  */
 @Component
 @RequiredArgsConstructor
@@ -28,134 +38,184 @@ public class CSGOInventoryMapper {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private final UrlProvider urlProvider;
-    private final BusyWaitingService busyWaitingService;
+    private final ProxyRateLimiter proxyRateLimiter;
+    private final ObjectMapper objectMapper;
+    private final ResponseHandlerExecutor responseHandlerExecutor;
 
     /**
-     * Fetches and maps the CS:GO inventory for a given Steam account.
-     * Uses a RestTemplate for HTTP requests to the Steam API.
-     *
-     * @param accountBuilder The account builder for which the inventory is being fetched.
-     * @param id64           The SteamID64 of the account.
-     * @param restTemplate   The RestTemplate instance for HTTP calls.
-     * @return The status of the inventory fetch request.
+     * Signals that an inventory could not be fetched. Carries the status the failure maps to.
      */
-    public HttpResponseMappingStatus getInventory(CSGOAccount.CSGOAccountBuilder accountBuilder, String id64, RestTemplate restTemplate) {
-        LOGGER.info("Fetching inventory for user with ID: {}", id64);
-
-        HttpInventoryResponse initialResponse;
-
-        try {
-            initialResponse = restTemplate.getForObject(urlProvider.getFirstInventoryRequestUri(id64), HttpInventoryResponse.class);
-        } catch (Exception ex) {
-            return handleException(ex);
-        }
-
-        if (initialResponse == null || !initialResponse.successful()) {
-            return HttpResponseMappingStatus.TOO_MANY_REQUESTS;
+    public static class InventoryFetchException extends RuntimeException {
+        @Getter
+        private final HttpResponseMappingStatus status;
+
+        /**
+         * Constructs the exception.
+         *
+         * @param status  The status the failure maps to.
+         * @param message Describes the failure.
+         */
+        public InventoryFetchException(HttpResponseMappingStatus status, String message) {
+            super(message);
+            this.status = status;
         }
-
-        List<ItemCollection> itemList = initialResponse.getItemCollections();
-
-        // Fetch additional pages if inventory has more items
-        if (initialResponse.hasMoreItems()) {
-            itemList = fetchAdditionalPages(itemList, id64, initialResponse, restTemplate);
-        }
-
-        // Assign inventory to the account builder
-        CSGOInventory inventory = CSGOInventory.builder().itemCollections(itemList).build();
-        accountBuilder.csgoInventory(inventory);
-
-        return HttpResponseMappingStatus.SUCCESS;
     }
 
     /**
-     * Handles exceptions during HTTP requests.
+     * Fetches and maps the CS:GO inventory for a given Steam account without blocking the calling thread.
+     * Pagination is chained on the `last_assetid` of each page, so no thread is held while a page is in flight.
+     * The caller must hold an in-flight permit of the proxy client for the whole duration of the future.
      *
-     * @param ex The exception to be handled.
-     * @return The corresponding {@link HttpResponseMappingStatus}.
+     * @param id64   The SteamID64 of the account.
+     * @param client The proxy client for HTTP calls.
+     * @return A future completing with the inventory, or with null if the inventory is private. If the inventory
+     * can't be fetched the future completes exceptionally with an {@link InventoryFetchException}.
      */
-    private HttpResponseMappingStatus handleException(Exception ex) {
-        if (ex instanceof RestClientResponseException e) {
-            if (e.getRawStatusCode() == 403) {
-                // Inventory or account is private
-                return HttpResponseMappingStatus.SUCCESS;
-            } else if (e.getRawStatusCode() == 429) {
-                LOGGER.error("429 - Too many requests. Retrying after wait.");
-                busyWaitingService.wait(240);
-                return HttpResponseMappingStatus.TOO_MANY_REQUESTS;
-            } else if (e.getRawStatusCode() == 401) {
-                LOGGER.error("401 - Unauthorized. Proxy may not have access.");
-                busyWaitingService.wait(60);
-                return HttpResponseMappingStatus.UNKNOWN_EXCEPTION;
-            }
-        } else {
-            LOGGER.error("Exception during HTTP request: {}", ex.getMessage());
-        }
-        return HttpResponseMappingStatus.UNKNOWN_EXCEPTION;
+    public CompletableFuture<CSGOInventory> getInventoryAsync(long id64, ProxyClient client) {
+        LOGGER.info("Fetching inventory asynchronously for user with ID: {}", id64);
+
+        return fetchPageAsync(urlProvider.getFirstInventoryRequestUri(id64), client)
+            .thenCompose(initialResponse -> {
+                if (initialResponse == null) {
+                    // Inventory or account is private
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                List<ItemCollection> itemList = initialResponse.getItemCollections();
+                CompletableFuture<List<ItemCollection>> allItems = initialResponse.hasMoreItems()
+                    ? fetchAdditionalPagesAsync(combine(new LinkedHashMap<>(), itemList), id64, initialResponse, client)
+                        .thenApply(items -> new ArrayList<>(items.values()))
+                    : CompletableFuture.completedFuture(itemList);
+
+                return allItems.thenApply(items -> CSGOInventory.builder().itemCollections(items).build());
+            })
+            .exceptionally(ex -> {
+                throw new InventoryFetchException(statusOf(ex), ex.getMessage());
+            });
     }
 
     /**
-     * Fetches additional inventory pages if the inventory exceeds the item limit for a single response.
+     * Fetches additional inventory pages without blocking, if the inventory exceeds the item limit for a single response.
+     * Every page takes a token of the proxy and a failing page ends the pagination with the items fetched so far.
+     * Waiting for the token doesn't hold a thread.
      *
-     * @param itemList        The initial list of items from the first page.
-     * @param id64            The SteamID64 of the account.
+     * @param items            The items from all previous pages by their structural key.
+     * @param id64             The SteamID64 of the account.
      * @param previousResponse The response containing the lastAssetId for pagination.
-     * @param restTemplate    The RestTemplate for HTTP calls.
-     * @return The complete list of items from all pages.
+     * @param client           The proxy client for HTTP calls.
+     * @return A future completing with the items from all pages by their structural key.
      */
-    private List<ItemCollection> fetchAdditionalPages(List<ItemCollection> itemList, String id64, HttpInventoryResponse previousResponse, RestTemplate restTemplate) {
-        HttpInventoryResponse nextPageResponse;
-        String lastAssetId = previousResponse.getLastAssetId();
-
-        try {
-            nextPageResponse = restTemplate.getForObject(urlProvider.getInventoryRequestUriWithStart(id64, lastAssetId), HttpInventoryResponse.class);
-        } catch (Exception ex) {
-            handleException(ex);
-            return itemList;
-        }
+    private CompletableFuture<Map<ItemCollection.StructuralKey, ItemCollection>> fetchAdditionalPagesAsync(Map<ItemCollection.StructuralKey, ItemCollection> items, long id64, HttpInventoryResponse previousResponse, ProxyClient client) {
+        String uri = urlProvider.getInventoryRequestUriWithStart(id64, previousResponse.getLastAssetId());
+
+        return proxyRateLimiter.acquire(client.getKey())
+            .thenCompose(acquired -> fetchPageAsync(uri, client))
+            .thenCompose(nextPageResponse -> {
+                if (nextPageResponse == null) {
+                    return CompletableFuture.completedFuture(items);
+                }
+
+                combine(items, nextPageResponse.getItemCollections());
+
+                // If there are even more items, fetch additional pages
+                if (nextPageResponse.hasMoreItems()) {
+                    return fetchAdditionalPagesAsync(items, id64, nextPageResponse, client);
+                }
+                return CompletableFuture.completedFuture(items);
+            })
+            .exceptionally(ex -> {
+                LOGGER.error("Fetching additional page failed with status {}: {}", statusOf(ex), ex.getMessage());
+                return items;
+            });
+    }
 
-        if (nextPageResponse != null) {
-            itemList = combineLists(itemList, nextPageResponse);
+    /**
+     * Fetches and parses a single inventory page without blocking. The body is parsed on the
+     * {@link ResponseHandlerExecutor} while it arrives, since reading it blocks until the next part of it is received.
+     *
+     * @param uri    The URI of the page.
+     * @param client The proxy client for HTTP calls.
+     * @return A future completing with the parsed page, or with null if the inventory is private.
+     */
+    private CompletableFuture<HttpInventoryResponse> fetchPageAsync(String uri, ProxyClient client) {
+        return client.getAsync(uri).thenApplyAsync(response -> parseResponse(response, client), responseHandlerExecutor.get());
+    }
 
-            // If there are even more items, fetch additional pages
-            if (nextPageResponse.hasMoreItems()) {
-                return fetchAdditionalPages(itemList, id64, nextPageResponse, restTemplate);
+    /**
+     * Parses the response of an inventory page and maps unsuccessful status codes to an {@link InventoryFetchException}.
+     * Throttled or rejected proxies are backed off by the {@link ProxyRateLimiter}, the calling thread never waits.
+     * The body is streamed into the parser and closed in any case.
+     *
+     * @param response The HTTP response.
+     * @param client   The proxy client the request was sent with.
+     * @return The parsed page, or null if the inventory is private.
+     */
+    private HttpInventoryResponse parseResponse(HttpResponse<InputStream> response, ProxyClient client) {
+        try (InputStream body = response.body()) {
+            switch (response.statusCode()) {
+                case 200 -> {
+                    HttpInventoryResponse inventoryResponse = objectMapper.readValue(body, HttpInventoryResponse.class);
+                    if (inventoryResponse == null || !inventoryResponse.successful()) {
+                        LOGGER.error("Unsuccessful inventory response. Backing off proxy {}.", client);
+                        proxyRateLimiter.onThrottled(client.getKey());
+                        throw new InventoryFetchException(HttpResponseMappingStatus.TOO_MANY_REQUESTS, "Unsuccessful inventory response");
+                    }
+                    proxyRateLimiter.onSuccess(client.getKey());
+                    return inventoryResponse;
+                }
+                case 403 -> {
+                    // Inventory or account is private
+                    proxyRateLimiter.onSuccess(client.getKey());
+                    return null;
+                }
+                case 429 -> {
+                    LOGGER.error("429 - Too many requests. Backing off proxy {}.", client);
+                    proxyRateLimiter.onThrottled(client.getKey());
+                    throw new InventoryFetchException(HttpResponseMappingStatus.TOO_MANY_REQUESTS, "429 - Too many requests");
+                }
+                case 401 -> {
+                    LOGGER.error("401 - Unauthorized. Proxy {} may not have access.", client);
+                    proxyRateLimiter.onThrottled(client.getKey());
+                    throw new InventoryFetchException(HttpResponseMappingStatus.UNKNOWN_EXCEPTION, "401 - Unauthorized");
+                }
+                default -> throw new InventoryFetchException(HttpResponseMappingStatus.UNKNOWN_EXCEPTION, "Unexpected status " + response.statusCode());
             }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
-
-        return itemList;
     }
 
     /**
-     * Combines items from multiple inventory pages into a single list.
+     * Maps a failure of an asynchronous request to the corresponding {@link HttpResponseMappingStatus}.
      *
-     * @param existingItems The list of items from previous pages.
-     * @param newResponse   The response containing items from the next page.
-     * @return A combined list of items.
+     * @param ex The failure, possibly wrapped in a {@link CompletionException}.
+     * @return The corresponding status.
      */
-    private List<ItemCollection> combineLists(List<ItemCollection> existingItems, HttpInventoryResponse newResponse) {
-        List<ItemCollection> combinedList = new ArrayList<>(existingItems);
-
-        for (ItemCollection newItem : newResponse.getItemCollections()) {
-            ItemCollection existingItem = findMatchingItem(existingItems, newItem);
-            if (existingItem != null) {
-                existingItem.setAmount(existingItem.getAmount() + newItem.getAmount());
-            } else {
-                combinedList.add(newItem);
-            }
+    public static HttpResponseMappingStatus statusOf(Throwable ex) {
+        while (ex instanceof CompletionException && ex.getCause() != null) {
+            ex = ex.getCause();
         }
-
-        return combinedList;
+        if (ex instanceof InventoryFetchException e) {
+            return e.getStatus();
+        }
+        return HttpResponseMappingStatus.UNKNOWN_EXCEPTION;
     }
 
     /**
-     * Finds a matching item in the existing list based on deep equality.
+     * Combines the items of an inventory page with the items of the previous pages. Equal items are looked up by their
+     * {@link ItemCollection#structuralKey()}, so combining all pages of an inventory takes linear time.
      *
-     * @param items The list of existing items.
-     * @param targetItem The item to find a match for.
-     * @return The matching item if found, otherwise null.
+     * @param items    The items from previous pages by their structural key, in the order they were first seen.
+     * @param newItems The items of the next page.
+     * @return The given map, containing the items of all pages.
      */
-    private ItemCollection findMatchingItem(List<ItemCollection> items, ItemCollection targetItem) {
-        return items.stream().filter(item -> item.deepEquals(targetItem)).findFirst().orElse(null);
+    private Map<ItemCollection.StructuralKey, ItemCollection> combine(Map<ItemCollection.StructuralKey, ItemCollection> items, List<ItemCollection> newItems) {
+        for (ItemCollection newItem : newItems) {
+            ItemCollection existingItem = items.putIfAbsent(newItem.structuralKey(), newItem);
+            if (existingItem != null) {
+                existingItem.setAmount(existingItem.getAmount() + newItem.getAmount());
+            }
+        }
+        return items;
     }
 }
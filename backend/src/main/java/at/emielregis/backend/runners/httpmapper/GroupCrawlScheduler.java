@@ -0,0 +1,212 @@
+package at.emielregis.backend.runners.httpmapper;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+/**
+ * Decides which Steam group the group crawler requests a page of next, so the requests are spent on the groups that
+ * yield the most accounts that have not been discovered yet.
+ * <p>
+ * The yield of a group is the amount of new accounts per page, averaged over its recent pages. Groups are chosen
+ * randomly, weighted by their yield, so the best groups receive most requests while the others are still sampled.
+ * Groups that have not been requested yet are assumed to yield a full page, so every group is tried early on.
+ * Once a group has been requested a few times and its yield drops below the minimum, it is retired for the session:
+ * its members are mostly known from other groups already. A group only has several pages in flight at once once its
+ * amount of pages is known, and never more pages than it has left.
+ */
+public class GroupCrawlScheduler {
+    private static final double UNEXPLORED_YIELD = 1000; // Steam sends up to 1000 members per page
+    private static final double MIN_WEIGHT = 0.01; // Groups without new accounts are still sampled until retired
+    private static final double YIELD_SMOOTHING = 0.3; // Weight of the newest page in the average yield
+
+    /**
+     * The crawl state of a single group.
+     */
+    private static final class GroupStats {
+        private final String name;
+        private double yield = UNEXPLORED_YIELD; // Average new accounts per page
+        private long pages; // Successfully requested pages
+        private long newAccounts;
+        private int inFlight;
+        private boolean retired;
+
+        private GroupStats(String name) {
+            this.name = name;
+        }
+    }
+
+    private final int maxConcurrentPages;
+    private final int minPages;
+    private final double minYield;
+    private final ToIntFunction<String> remainingPages;
+
+    private final Map<String, GroupStats> groups = new LinkedHashMap<>(); // Guarded by this
+
+    /**
+     * Creates a scheduler without any groups, see {@link #setGroups(List)}.
+     *
+     * @param maxConcurrentPages The maximum amount of pages of a single group in flight at once.
+     * @param minPages           The amount of pages of a group requested before it may be retired.
+     * @param minYield           Groups yielding fewer new accounts per page on average are retired.
+     * @param remainingPages     Returns the amount of pages of a group not handed out yet, or -1 if unknown.
+     */
+    public GroupCrawlScheduler(int maxConcurrentPages, int minPages, double minYield, ToIntFunction<String> remainingPages) {
+        if (maxConcurrentPages <= 0) {
+            throw new IllegalStateException("group-max-concurrent-pages must be positive.");
+        }
+        this.maxConcurrentPages = maxConcurrentPages;
+        this.minPages = minPages;
+        this.minYield = minYield;
+        this.remainingPages = remainingPages;
+    }
+
+    /**
+     * Sets the groups to crawl. The state of groups that were scheduled before is kept.
+     *
+     * @param names The names of the groups.
+     */
+    public synchronized void setGroups(List<String> names) {
+        groups.keySet().retainAll(names);
+        names.forEach(name -> groups.computeIfAbsent(name, GroupStats::new));
+    }
+
+    /**
+     * Chooses the group to request a page of and counts the page as in flight. Must be followed by a call to
+     * {@link #complete(String, int)}, {@link #fail(String)} or {@link #finish(String)}.
+     *
+     * @return The name of the group, or null if every active group already has as many pages in flight as it may.
+     */
+    public synchronized String next() {
+        List<GroupStats> candidates = new ArrayList<>();
+        double totalWeight = 0;
+        for (GroupStats group : groups.values()) {
+            if (!group.retired && group.inFlight < maxInFlight(group)) {
+                candidates.add(group);
+                totalWeight += weight(group);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        double target = ThreadLocalRandom.current().nextDouble() * totalWeight;
+        GroupStats chosen = candidates.get(candidates.size() - 1);
+        for (GroupStats group : candidates) {
+            target -= weight(group);
+            if (target < 0) {
+                chosen = group;
+                break;
+            }
+        }
+        chosen.inFlight++;
+        return chosen.name;
+    }
+
+    /**
+     * Records a successfully requested page and retires the group if its yield dropped below the minimum.
+     *
+     * @param name        The name of the group.
+     * @param newAccounts The amount of accounts on the page that had not been discovered before.
+     * @return True if the group has been retired by this page.
+     */
+    public synchronized boolean complete(String name, int newAccounts) {
+        GroupStats group = groups.get(name);
+        if (group == null) {
+            return false;
+        }
+
+        group.inFlight = Math.max(0, group.inFlight - 1);
+        group.yield = group.pages == 0 ? newAccounts : YIELD_SMOOTHING * newAccounts + (1 - YIELD_SMOOTHING) * group.yield;
+        group.pages++;
+        group.newAccounts += newAccounts;
+
+        if (!group.retired && group.pages >= minPages && group.yield < minYield) {
+            group.retired = true;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records a page whose request failed. The page is requested again later, so it doesn't change the yield.
+     *
+     * @param name The name of the group.
+     */
+    public synchronized void fail(String name) {
+        GroupStats group = groups.get(name);
+        if (group != null) {
+            group.inFlight = Math.max(0, group.inFlight - 1);
+        }
+    }
+
+    /**
+     * Records a page that found all pages of the group handed out, and removes the group if it has been crawled
+     * completely: no other page of it is in flight and no page is left, so none can be freed again by a failing
+     * request. Otherwise the page only stops counting as in flight, the group is chosen again once the other pages
+     * completed.
+     *
+     * @param name The name of the group.
+     * @return True if the group has been removed and may be locked.
+     */
+    public synchronized boolean finish(String name) {
+        GroupStats group = groups.get(name);
+        if (group == null) {
+            return false;
+        }
+        // Failing pages are freed before they stop counting as in flight, so no free page is missed here
+        if (group.inFlight <= 1 && remainingPages.applyAsInt(name) <= 0) {
+            groups.remove(name);
+            return true;
+        }
+        group.inFlight = Math.max(0, group.inFlight - 1);
+        return false;
+    }
+
+    /**
+     * @return True if any group may still be crawled in this session.
+     */
+    public synchronized boolean hasActiveGroups() {
+        return groups.values().stream().anyMatch(group -> !group.retired);
+    }
+
+    /**
+     * Summarizes the active and retired groups and the best groups by yield.
+     *
+     * @return A single line summary.
+     */
+    public synchronized String getStatistics() {
+        long active = groups.values().stream().filter(group -> !group.retired).count();
+        long pages = groups.values().stream().mapToLong(group -> group.pages).sum();
+        long newAccounts = groups.values().stream().mapToLong(group -> group.newAccounts).sum();
+        String best = groups.values().stream()
+            .filter(group -> !group.retired && group.pages > 0)
+            .sorted(Comparator.comparingDouble((GroupStats group) -> group.yield).reversed())
+            .limit(3)
+            .map(group -> String.format("%s %.0f", group.name, group.yield))
+            .collect(Collectors.joining(", "));
+        return String.format("%d active, %d retired, %.1f new accounts per page, best yields: [%s]",
+            active, groups.size() - active, pages == 0 ? 0.0 : newAccounts / (double) pages, best);
+    }
+
+    /**
+     * Groups whose amount of pages is not known yet get a single page in flight, so no pages beyond the end are
+     * handed out. Groups without pages left get a single request, which finds out that the group is complete.
+     */
+    private int maxInFlight(GroupStats group) {
+        int remaining = remainingPages.applyAsInt(group.name);
+        if (remaining <= 0) {
+            return 1;
+        }
+        return Math.min(maxConcurrentPages, remaining + group.inFlight);
+    }
+
+    private static double weight(GroupStats group) {
+        return Math.max(group.yield, MIN_WEIGHT);
+    }
+}
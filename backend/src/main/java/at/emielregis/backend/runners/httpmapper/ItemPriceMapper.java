@@ -11,6 +11,7 @@ import at.emielregis.backend.service.ItemService;
 import at.emielregis.backend.service.ItemTypeService;
 import at.emielregis.backend.service.ProxyService;
 import at.emielregis.backend.service.UrlProvider;
+import at.emielregis.backend.service.proxy.ProxyClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -71,7 +72,7 @@ public class ItemPriceMapper {
     // the api is really slow, so it doesn't work well, even with 100 proxies
     private void parseSteamMarketPrices() {
         LOGGER.info("RUNNING STEAM MARKET PRICE MAPPER");
-        int THREAD_AMOUNT = 100;
+        int THREAD_AMOUNT = proxyService.maxThreads();
 
         List<Integer> pagesToMap = Collections.synchronizedList(new ArrayList<>());
 
@@ -91,11 +92,10 @@ public class ItemPriceMapper {
         List<Integer> successful = Collections.synchronizedList(new ArrayList<>());
         AtomicInteger currentThreadId = new AtomicInteger(0);
 
-        proxyService.addRestTemplateConsumerThreads(proxyService.maxThreads(), proxyService.maxThreads(), templates -> {
+        proxyService.addProxyClientConsumerThreads(THREAD_AMOUNT, proxyService.maxThreads(), clients -> {
             List<Integer> idsForThread = distributedIds.get(currentThreadId.getAndIncrement());
-            int proxyIndex = 0;
 
-            while (true) {
+            while (!proxyService.isStopped()) {
                 SteamMarketPriceResponse steamMarketPriceResponse;
                 Integer currentPage = null;
                 try {
@@ -107,8 +107,12 @@ public class ItemPriceMapper {
                         break;
                     }
                     LOGGER.info("MAPPING FOR ID: {}", currentPage);
-                    steamMarketPriceResponse = templates[proxyIndex].getForObject(urlProvider.getSteamMarketPriceUrl(currentPage), SteamMarketPriceResponse.class);
-                    proxyIndex = (proxyIndex + 1) % templates.length;
+                    ProxyClient client = proxyService.awaitReady(clients);
+                    try {
+                        steamMarketPriceResponse = client.getRestTemplate().getForObject(urlProvider.getSteamMarketPriceUrl(currentPage), SteamMarketPriceResponse.class);
+                    } finally {
+                        client.release();
+                    }
                 } catch (RestClientException e) {
                     LOGGER.error(e.getMessage());
                     idsForThread.add(currentPage);
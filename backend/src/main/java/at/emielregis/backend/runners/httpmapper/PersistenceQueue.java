@@ -0,0 +1,100 @@
+package at.emielregis.backend.runners.httpmapper;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Bounded queue between the threads fetching inventories and the writer threads persisting them.
+ * Producers wait while the queue is full, so fetching can never run ahead of persisting by more than the capacity,
+ * each writer takes a batch of the queued elements at once.
+ * <p>
+ * The queue is a {@link LinkedBlockingQueue}, not a lock-free queue: it has one lock for adding and one for taking
+ * elements, so producers don't contend with the writers, only with each other, and the writers only with each other.
+ * Producers take their lock once per element, writers twice per batch: for the first element and for the rest.
+ *
+ * @param <T> The type of the queued elements.
+ */
+public class PersistenceQueue<T> {
+    private final BlockingQueue<T> queue;
+    private final int capacity;
+
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong producerWaitNanos = new AtomicLong(); // Time producers spent waiting for free capacity
+    private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Constructs an empty queue.
+     *
+     * @param capacity The maximum amount of queued elements.
+     */
+    public PersistenceQueue(int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.capacity = capacity;
+    }
+
+    /**
+     * Adds an element, waiting until the queue has free capacity.
+     *
+     * @param element The element to add.
+     */
+    public void put(T element) {
+        if (!queue.offer(element)) {
+            long start = System.nanoTime();
+            try {
+                queue.put(element);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for free capacity", e);
+            } finally {
+                producerWaitNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+
+        added.incrementAndGet();
+        maxDepth.accumulate(queue.size());
+    }
+
+    /**
+     * Takes up to the given amount of elements, waiting up to the given timeout for the first element.
+     *
+     * @param maxElements The maximum amount of elements to take.
+     * @param timeout     The maximum time to wait for the first element.
+     * @param unit        The unit of the timeout.
+     * @return The taken elements in insertion order, empty if no element was added before the timeout.
+     */
+    public List<T> drain(int maxElements, long timeout, TimeUnit unit) {
+        List<T> elements = new ArrayList<>();
+        T first;
+        try {
+            first = queue.poll(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return elements;
+        }
+
+        if (first != null) {
+            elements.add(first);
+            queue.drainTo(elements, maxElements - 1);
+        }
+        return elements;
+    }
+
+    public boolean isEmpty() {
+        return queue.isEmpty();
+    }
+
+    /**
+     * Summarizes the current and maximum depth of the queue and the time producers waited for free capacity.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d/%d queued (max %d), %d added, producers waited %d ms",
+            queue.size(), capacity, maxDepth.get(), added.get(), TimeUnit.NANOSECONDS.toMillis(producerWaitNanos.get()));
+    }
+}
@@ -1,28 +1,35 @@
 package at.emielregis.backend.runners.httpmapper;
 
-import at.emielregis.backend.data.entities.SteamAccount;
 import at.emielregis.backend.data.entities.SteamGroup;
+import at.emielregis.backend.data.responses.SteamGroupMemberListResponse;
 import at.emielregis.backend.service.*;
+import at.emielregis.backend.service.proxy.ProxyClient;
+import at.emielregis.backend.service.proxy.ProxyRateLimiter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
 import org.springframework.stereotype.Component;
 import org.springframework.web.client.RestClientResponseException;
-import org.springframework.web.client.RestTemplate;
 
+import javax.annotation.PostConstruct;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Maps Steam groups to retrieve and store Steam accounts.
- * This class uses the Steam API to fetch accounts from specified groups
- * and ensures that a buffer of unmapped accounts is always available for processing.
+ * Crawling the groups is a pipeline stage of its own: it runs on its own threads with its own proxies, so the
+ * inventory mapping threads never fetch group pages themselves.
+ * The stage keeps the amount of unmapped accounts (see {@link AccountCounters#getUnmapped()}) between two watermarks:
+ * crawling starts once the amount drops below the low watermark and pauses once it reaches the buffer size, so new
+ * accounts are found ahead of demand.
+ * Which group a page is requested of is decided by a {@link GroupCrawlScheduler} from the amount of new accounts the
+ * pages of each group yielded so far.
  */
 @Component
 public class SteamGroupMapper {
@@ -30,146 +37,361 @@ public class SteamGroupMapper {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private final SteamAccountService steamAccountService;
-    private final CSGOAccountService csgoAccountService;
     private final UrlProvider urlProvider;
-    private final BusyWaitingService busyWaitingService;
+    private final ProxyService proxyService;
+    private final ProxyRateLimiter proxyRateLimiter;
     private final PersistentDataService persistentDataService;
+    private final AccountCounters accountCounters;
 
     @Value("${user-properties.account-buffer-size}")
-    private long ACCOUNT_BUFFER_SIZE;
+    private long ACCOUNT_BUFFER_SIZE; // High watermark, crawling pauses once this many accounts are unmapped
 
-    private volatile boolean initialized = false;
-    private long currentAccounts;
-    private int amountOfGroups = -1;
-    private List<SteamGroup> groups = null;
+    @Value("${user-properties.account-buffer-low-watermark}")
+    private long ACCOUNT_BUFFER_LOW_WATERMARK; // Crawling resumes once fewer accounts are unmapped
+
+    @Value("${user-properties.group-crawler-threads}")
+    private int GROUP_CRAWLER_THREADS; // Number of threads crawling groups
+
+    @Value("${user-properties.group-crawler-proxies}")
+    private int GROUP_CRAWLER_PROXIES; // Number of proxies used for crawling groups
+
+    @Value("${user-properties.group-crawler-poll-seconds}")
+    private long GROUP_CRAWLER_POLL_SECONDS; // Interval in which paused crawlers check the unmapped accounts again
+
+    @Value("${user-properties.group-max-concurrent-pages}")
+    private int GROUP_MAX_CONCURRENT_PAGES; // Max pages of a single group requested at once
+
+    @Value("${user-properties.group-min-pages}")
+    private int GROUP_MIN_PAGES; // Pages of a group requested before it may be retired
+
+    @Value("${user-properties.group-min-yield}")
+    private double GROUP_MIN_YIELD; // Groups yielding fewer new accounts per page are retired
+
+    private static final long GROUP_PAGE_WAIT_MILLIS = 100; // Wait for a page in flight when no group may be requested
+
+    private final Object signal = new Object(); // Notified when accounts were found or the stage stops
+
+    private volatile boolean running = false;
+    private volatile boolean crawling = false; // Between the watermarks the previous decision is kept
+    private GroupCrawlScheduler scheduler;
+
+    private final AtomicLong crawledPages = new AtomicLong();
+    private final AtomicLong failedPages = new AtomicLong();
+    private final AtomicLong foundAccounts = new AtomicLong();
 
     /**
      * Constructs the SteamGroupMapper with required services.
      *
      * @param steamAccountService   Service for managing Steam accounts.
-     * @param csgoAccountService    Service for managing CS:GO accounts.
      * @param urlProvider           Provides URIs for Steam API requests.
-     * @param busyWaitingService    Handles wait logic when encountering rate limits.
+     * @param proxyService          Runs the crawler threads and selects the proxies that are ready to send requests.
+     * @param proxyRateLimiter      Backs off proxies when encountering rate limits.
      * @param persistentDataService Service for managing group and page persistence.
+     * @param accountCounters       The in-memory counters the amount of unmapped accounts is taken from.
+     * @param statisticsService     The service the crawler statistics are logged with.
      */
     public SteamGroupMapper(SteamAccountService steamAccountService,
-                            CSGOAccountService csgoAccountService,
                             UrlProvider urlProvider,
-                            BusyWaitingService busyWaitingService,
-                            PersistentDataService persistentDataService) {
+                            ProxyService proxyService,
+                            ProxyRateLimiter proxyRateLimiter,
+                            PersistentDataService persistentDataService,
+                            AccountCounters accountCounters,
+                            StatisticsService statisticsService) {
         this.steamAccountService = steamAccountService;
-        this.csgoAccountService = csgoAccountService;
         this.urlProvider = urlProvider;
-        this.busyWaitingService = busyWaitingService;
+        this.proxyService = proxyService;
+        this.proxyRateLimiter = proxyRateLimiter;
         this.persistentDataService = persistentDataService;
+        this.accountCounters = accountCounters;
+        statisticsService.register("group crawler", this::getStatistics);
     }
 
     /**
-     * Finds and maps new Steam accounts from groups when the buffer size falls below the threshold.
-     *
-     * @param restTemplates Array of RestTemplate instances for making HTTP requests.
-     */
-    public void findAccounts(RestTemplate[] restTemplates) {
-        synchronized (this) {
-            if (!initialized) {
-                initialized = true;
-                currentAccounts = steamAccountService.count();
-                groups = persistentDataService.initializeGroups(getGroups());
-                amountOfGroups = groups.size();
-            }
-        }
+     * Creates the scheduler of the groups once the properties are set.
+     */
+    @PostConstruct
+    private void init() {
+        scheduler = new GroupCrawlScheduler(GROUP_MAX_CONCURRENT_PAGES, GROUP_MIN_PAGES, GROUP_MIN_YIELD,
+            persistentDataService::getRemainingPages);
+    }
 
-        // Wait for initialization in other threads
-        while (!initialized) {
-            Thread.onSpinWait();
+    /**
+     * Starts the crawler threads with their own proxies. They run until {@link #stop()} is called or all groups
+     * have been crawled completely, and are awaited together with the other workers of the {@link ProxyService}.
+     */
+    public void start() {
+        if (ACCOUNT_BUFFER_LOW_WATERMARK > ACCOUNT_BUFFER_SIZE) {
+            throw new IllegalStateException("account-buffer-low-watermark must not be bigger than account-buffer-size.");
         }
 
-        LOGGER.info("Already have {} accounts", currentAccounts);
+        List<SteamGroup> groups = persistentDataService.initializeGroups(getGroups());
+        scheduler.setGroups(groups.stream().map(SteamGroup::getName).toList());
+        crawling = accountCounters.getUnmapped() < ACCOUNT_BUFFER_SIZE;
+        running = true;
+        LOGGER.info("Already have {} unmapped accounts, crawling {} groups.", accountCounters.getUnmapped(), groups.size());
 
-        int proxyIndex = 0;
+        ProxyClient[] clients = proxyService.createClients(GROUP_CRAWLER_PROXIES);
+        for (int i = 0; i < GROUP_CRAWLER_THREADS; i++) {
+            proxyService.addEmptyThread(() -> crawl(clients));
+        }
+    }
+
+    /**
+     * Stops the crawler threads after their current page.
+     */
+    public void stop() {
+        running = false;
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
 
-        // Fetch accounts until the buffer is filled
-        while (currentAccounts < (csgoAccountService.count() + ACCOUNT_BUFFER_SIZE)) {
-            String currentGroup;
-            long currentPage;
+    /**
+     * Waits until new accounts have been stored or the timeout has passed. Wakes paused crawlers first, so they
+     * check the unmapped accounts instead of waiting for the next poll.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     * @return False if no more accounts will be found because the crawler stopped, otherwise true.
+     */
+    public boolean awaitAccounts(long timeout, TimeUnit unit) {
+        if (!isActive()) {
+            return false;
+        }
 
-            // Select a group and page for processing
-            synchronized (this) {
-                currentGroup = groups.get((int) (amountOfGroups * Math.random())).getName();
-                currentPage = persistentDataService.getNextPage(currentGroup);
+        synchronized (signal) {
+            signal.notifyAll();
+            try {
+                TimeUnit.MILLISECONDS.timedWait(signal, Math.max(1, unit.toMillis(timeout)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
+        }
+        return isActive();
+    }
 
-            LOGGER.info("Mapping group: {}, page: {}, current accounts: {}", currentGroup, currentPage, currentAccounts);
+    /**
+     * Summarizes the crawled pages and found accounts.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%s, %d unmapped accounts, %d pages crawled, %d failed, %d accounts found, groups: %s",
+            !isActive() ? "stopped" : crawling ? "crawling" : "paused", accountCounters.getUnmapped(),
+            crawledPages.get(), failedPages.get(), foundAccounts.get(), scheduler.getStatistics());
+    }
 
-            String currentUri = urlProvider.getSteamGroupRequest(currentGroup, currentPage);
+    private boolean isActive() {
+        return running && scheduler.hasActiveGroups() && !proxyService.isStopped();
+    }
 
-            String response;
-            try {
-                response = restTemplates[proxyIndex].getForObject(currentUri, String.class);
-                proxyIndex = (proxyIndex + 1) % restTemplates.length;
-            } catch (Exception ex) {
-                handleFailedRequest(ex, currentGroup, currentPage);
+    /**
+     * Crawls group pages while the amount of unmapped accounts is below the watermarks, otherwise waits.
+     *
+     * @param clients The proxy clients for sending HTTP requests, shared with the other crawler threads.
+     */
+    private void crawl(ProxyClient[] clients) {
+        while (isActive()) {
+            if (!shouldCrawl()) {
+                pause(GROUP_CRAWLER_POLL_SECONDS, TimeUnit.SECONDS);
                 continue;
             }
+            crawlNextPage(clients);
+        }
 
-            if (response == null || response.contains("An error was encountered while processing your request")) {
-                LOGGER.error("Error processing group: {}, page: {}. Check Steam servers.", currentGroup, currentPage);
-                persistentDataService.freePage(currentGroup, currentPage);
-                continue;
+        if (running) {
+            LOGGER.info("All groups have been crawled or retired.");
+        }
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /**
+     * Applies the watermarks to the current amount of unmapped accounts.
+     *
+     * @return True if the next page should be crawled.
+     */
+    private boolean shouldCrawl() {
+        long unmappedAccounts = accountCounters.getUnmapped();
+        if (unmappedAccounts >= ACCOUNT_BUFFER_SIZE) {
+            crawling = false;
+        } else if (unmappedAccounts < ACCOUNT_BUFFER_LOW_WATERMARK) {
+            crawling = true;
+        }
+        return crawling;
+    }
+
+    /**
+     * Waits until the stage is woken up or the timeout has passed.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The unit of the timeout.
+     */
+    private void pause(long timeout, TimeUnit unit) {
+        synchronized (signal) {
+            try {
+                unit.timedWait(signal, timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
             }
+        }
+    }
 
-            processResponse(response, currentGroup);
+    /**
+     * Fetches the next page of the group chosen by the scheduler and stores the accounts on it. A page that can't be
+     * crawled, whether its request failed or e.g. storing its accounts, is freed to be requested again, so a single
+     * page never ends the crawler threads or the mapping threads running in the same scope.
+     *
+     * @param clients The proxy clients for sending HTTP requests.
+     */
+    private void crawlNextPage(ProxyClient[] clients) {
+        String currentGroup = scheduler.next();
+        if (currentGroup == null) {
+            // Every active group has as many pages in flight as it may, wait for one of them
+            pause(GROUP_PAGE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            return;
         }
+
+        long currentPage = PersistentDataService.NO_PAGE;
+        try {
+            // Pages are allocated per group without a shared lock
+            currentPage = persistentDataService.getNextPage(currentGroup);
+            if (currentPage == PersistentDataService.NO_PAGE) {
+                LOGGER.info("All pages of group {} have been handed out.", currentGroup);
+                lockGroupIfComplete(currentGroup);
+                return;
+            }
+            if (crawlPage(clients, currentGroup, currentPage)) {
+                return;
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Crawling group: {}, page: {} failed.", currentGroup, currentPage, e);
+            releasePage(currentGroup, currentPage);
+            // Don't spin on a failing database
+            pause(GROUP_PAGE_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+        releasePage(currentGroup, currentPage);
     }
 
     /**
-     * Handles failed HTTP requests and frees the page for retrying.
+     * Fetches a page of a group and stores the accounts on it. The response body is parsed into a
+     * {@link SteamGroupMemberListResponse}, which also tells the amount of pages of the group.
      *
-     * @param ex          The exception encountered during the request.
+     * @param clients      The proxy clients for sending HTTP requests.
      * @param currentGroup The group being processed.
-     * @param currentPage The page being processed.
+     * @param currentPage  The page being processed.
+     * @return False if the request failed, the page has to be requested again.
      */
-    private void handleFailedRequest(Exception ex, String currentGroup, long currentPage) {
-        synchronized (this) {
-            persistentDataService.freePage(currentGroup, currentPage);
+    private boolean crawlPage(ProxyClient[] clients, String currentGroup, long currentPage) {
+        LOGGER.info("Mapping group: {}, page: {}, unmapped accounts: {}", currentGroup, currentPage, accountCounters.getUnmapped());
+
+        String currentUri = urlProvider.getSteamGroupRequest(currentGroup, currentPage);
+
+        ProxyClient client = proxyService.awaitReady(clients);
+        SteamGroupMemberListResponse response;
+        try {
+            response = client.getRestTemplate().execute(currentUri, HttpMethod.GET, null,
+                httpResponse -> SteamGroupMemberListResponse.read(httpResponse.getBody()));
+        } catch (Exception ex) {
+            handleFailedRequest(ex, client);
+            return false;
+        } finally {
+            client.release();
+        }
+
+        if (response == null) {
+            LOGGER.error("Error processing group: {}, page: {}. Check Steam servers.", currentGroup, currentPage);
+            return false;
         }
-        if (ex instanceof RestClientResponseException e && e.getRawStatusCode() == 429) {
-            LOGGER.error("429 - Too many requests. Retrying after wait.");
-            busyWaitingService.wait(240);
+        proxyRateLimiter.onSuccess(client.getKey());
+
+        persistentDataService.setTotalPages(currentGroup, response.getTotalPages());
+        processResponse(response, currentGroup);
+        crawledPages.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Handles failed HTTP requests. The proxy the request was sent with is backed off, whether it was throttled,
+     * rejected or failed otherwise, and the next request is sent with another ready proxy. Responses that are not a
+     * member list (Steam answers with an error page while its servers are busy) are failures as well.
+     *
+     * @param ex     The exception encountered during the request.
+     * @param client The proxy client the request was sent with.
+     */
+    private void handleFailedRequest(Exception ex, ProxyClient client) {
+        if (ex instanceof RestClientResponseException e && (e.getRawStatusCode() == 429 || e.getRawStatusCode() == 401)) {
+            LOGGER.error("{} - Request throttled. Backing off proxy {}.", e.getRawStatusCode(), client);
         } else {
-            LOGGER.error("Request failed: {}", ex.getMessage());
-            busyWaitingService.wait(240);
+            LOGGER.error("Request failed: {}. Backing off proxy {}.", ex.getMessage(), client);
         }
+        proxyRateLimiter.onThrottled(client.getKey());
     }
 
     /**
-     * Processes the response from the Steam API, extracting and saving Steam accounts.
+     * Frees a page that could not be crawled for retrying and tells the scheduler it is no longer in flight.
      *
-     * @param response    The raw response from the Steam API.
      * @param currentGroup The group being processed.
+     * @param currentPage  The page being processed, or {@link PersistentDataService#NO_PAGE} if none was handed out.
      */
-    private void processResponse(String response, String currentGroup) {
-        Matcher matcher = Pattern.compile("<steamID64>(?<id>\\d{17})</steamID64>").matcher(response);
-        List<SteamAccount> accountList = new ArrayList<>();
-
-        synchronized (this) {
-            boolean hasAccounts = false;
-            while (matcher.find()) {
-                String id64 = matcher.group("id");
-                hasAccounts = true;
-                if (!steamAccountService.containsById64(id64)) {
-                    accountList.add(SteamAccount.builder().id64(id64).build());
-                }
+    private void releasePage(String currentGroup, long currentPage) {
+        failedPages.incrementAndGet();
+        try {
+            if (currentPage != PersistentDataService.NO_PAGE) {
+                persistentDataService.freePage(currentGroup, currentPage);
             }
+        } catch (RuntimeException e) {
+            // The page is still requested again in this session, only not after a restart
+            LOGGER.error("Storing free page: {} of group: {} failed.", currentPage, currentGroup, e);
+        } finally {
+            scheduler.fail(currentGroup);
+        }
+    }
 
-            if (!hasAccounts) {
-                persistentDataService.lockGroup(currentGroup);
-                groups = persistentDataService.getUnlockedGroups();
-                amountOfGroups = groups.size();
+    /**
+     * Stores the accounts of a member list page that have not been discovered yet, with a single statement and
+     * without a lock shared by the crawler threads. A page without members means the group has been crawled
+     * completely, so the group is locked once no other page of it is in flight. Otherwise the amount of new accounts is
+     * reported to the scheduler as the yield of the page.
+     * Threads waiting in {@link #awaitAccounts(long, TimeUnit)} are woken up once the accounts are stored.
+     *
+     * @param response     The parsed member list page.
+     * @param currentGroup The group being processed.
+     */
+    private void processResponse(SteamGroupMemberListResponse response, String currentGroup) {
+        if (response.getId64s().length == 0) {
+            lockGroupIfComplete(currentGroup);
+            return;
+        }
+
+        int newAccounts = steamAccountService.saveMissing(response.getId64s());
+        foundAccounts.addAndGet(newAccounts);
+        if (scheduler.complete(currentGroup, newAccounts)) {
+            LOGGER.info("Retired group {}, its pages yield too few new accounts.", currentGroup);
+        }
+
+        if (newAccounts > 0) {
+            synchronized (signal) {
+                signal.notifyAll();
             }
+        }
+    }
 
-            steamAccountService.saveAll(accountList);
-            currentAccounts = steamAccountService.count();
+    /**
+     * Locks a group whose pages have all been handed out, so no more pages of it are crawled - but only once none of
+     * its pages is in flight anymore. A page that fails after the group was locked would never be requested again,
+     * not even after a restart.
+     *
+     * @param currentGroup The group to lock.
+     */
+    private synchronized void lockGroupIfComplete(String currentGroup) {
+        if (scheduler.finish(currentGroup)) {
+            LOGGER.info("Locking group {}, all of its pages have been crawled.", currentGroup);
+            persistentDataService.lockGroup(currentGroup);
         }
     }
 
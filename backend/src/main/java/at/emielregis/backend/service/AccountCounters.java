@@ -0,0 +1,162 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.repository.CSGOAccountRepository;
+import at.emielregis.backend.repository.FailedAccountRepository;
+import at.emielregis.backend.repository.SteamAccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.invoke.MethodHandles;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory counters of the stored accounts, so limit and buffer checks don't count rows in the database.
+ * The counters are loaded from the database once at startup and updated by the services whenever they store or
+ * delete accounts. They are reconciled with the database in the configured interval, which corrects the difference
+ * caused by accounts stored while the previous count was running.
+ */
+@Component
+public class AccountCounters {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * The counted accounts.
+     */
+    public enum Counter {
+        DISCOVERED, // Stored Steam accounts
+        MAPPED, // Stored CS:GO accounts, with or without inventory
+        WITH_INVENTORY, // Stored CS:GO accounts with inventory
+        FAILED // Stored failed accounts, including the ones that have been given up on
+    }
+
+    @Value("${user-properties.counter-reconcile-seconds}")
+    private long COUNTER_RECONCILE_SECONDS; // Interval in which the counters are compared with the database
+
+    private final Map<Counter, LongAdder> counters = new EnumMap<>(Counter.class);
+    private final Map<Counter, LongSupplier> queries = new EnumMap<>(Counter.class);
+    private final Map<Counter, AtomicLong> lastDrift = new EnumMap<>(Counter.class); // Found by the last reconciliation
+
+    private ScheduledExecutorService reconciler;
+
+    /**
+     * Constructs the counters with the repositories they are loaded from.
+     *
+     * @param steamAccountRepository  The repository of the discovered accounts.
+     * @param csgoAccountRepository   The repository of the mapped accounts.
+     * @param failedAccountRepository The repository of the failed accounts.
+     * @param statisticsService       The service the counters are logged with.
+     */
+    public AccountCounters(SteamAccountRepository steamAccountRepository,
+                           CSGOAccountRepository csgoAccountRepository,
+                           FailedAccountRepository failedAccountRepository,
+                           StatisticsService statisticsService) {
+        queries.put(Counter.DISCOVERED, steamAccountRepository::count);
+        queries.put(Counter.MAPPED, csgoAccountRepository::count);
+        queries.put(Counter.WITH_INVENTORY, csgoAccountRepository::countWithInventory);
+        queries.put(Counter.FAILED, failedAccountRepository::count);
+        for (Counter counter : Counter.values()) {
+            counters.put(counter, new LongAdder());
+            lastDrift.put(counter, new AtomicLong());
+        }
+        statisticsService.register("account counters", this::getStatistics);
+    }
+
+    /**
+     * Loads the counters and starts reconciling them periodically.
+     */
+    @PostConstruct
+    private void init() {
+        counters.forEach((counter, adder) -> adder.add(queries.get(counter).getAsLong()));
+        LOGGER.info("Loaded account counters: {}", getStatistics());
+
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "account-counters");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, COUNTER_RECONCILE_SECONDS, COUNTER_RECONCILE_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops reconciling the counters.
+     */
+    @PreDestroy
+    private void destroy() {
+        // Not interrupted, an interrupted H2 file channel closes the whole database
+        reconciler.shutdown();
+    }
+
+    /**
+     * Adds to a counter. Must only be called once the change is committed to the database.
+     *
+     * @param counter The counter.
+     * @param delta   The amount to add, negative for deleted accounts.
+     */
+    public void add(Counter counter, long delta) {
+        counters.get(counter).add(delta);
+    }
+
+    /**
+     * Returns the current value of a counter without querying the database.
+     *
+     * @param counter The counter.
+     * @return The value of the counter.
+     */
+    public long get(Counter counter) {
+        return counters.get(counter).sum();
+    }
+
+    /**
+     * Returns the amount of discovered accounts that have neither been mapped nor failed yet, including the accounts
+     * currently handed out to the mappers.
+     *
+     * @return The amount of unmapped accounts.
+     */
+    public long getUnmapped() {
+        return Math.max(0, get(Counter.DISCOVERED) - get(Counter.MAPPED) - get(Counter.FAILED));
+    }
+
+    /**
+     * Summarizes the counters and the differences found by the last reconciliation.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return counters.keySet().stream()
+            .map(counter -> counter.name().toLowerCase() + ": " + get(counter) + " (drift " + lastDrift.get(counter) + ")")
+            .collect(Collectors.joining(", ")) + ", unmapped: " + getUnmapped();
+    }
+
+    /**
+     * Counts the accounts in the database and corrects the counters by the difference. Accounts stored while a count
+     * is running may be counted by both, the resulting difference is corrected by the next reconciliation.
+     */
+    private void reconcile() {
+        try {
+            for (Counter counter : Counter.values()) {
+                LongAdder adder = counters.get(counter);
+                long before = adder.sum();
+                long drift = queries.get(counter).getAsLong() - before;
+                if (drift != 0) {
+                    adder.add(drift);
+                    LOGGER.info("Corrected account counter {} by {}.", counter, drift);
+                }
+                lastDrift.get(counter).set(drift);
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Reconciling the account counters failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.repository.CSGOAccountRepository;
+import at.emielregis.backend.repository.SteamAccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * In-memory index of the SteamID64s of all stored {@link at.emielregis.backend.data.entities.SteamAccount}s
+ * (discovered accounts) and {@link at.emielregis.backend.data.entities.CSGOAccount}s (mapped accounts), so checking
+ * whether an account is known doesn't query the database.
+ * <p>
+ * The IDs are kept in {@link OffHeapLongSet}s, loaded at startup and extended whenever accounts are stored. On shutdown
+ * the sets are written to a snapshot file together with the highest row ID of each table, so the next startup only
+ * loads the rows stored after the snapshot. If the loaded sets don't match the amount of stored accounts (e.g. the
+ * database was replaced or rows were written while the snapshot was taken) they are rebuilt from the database.
+ */
+@Component
+public class AccountIdIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final long SNAPSHOT_MAGIC = 0x4353474f49445331L; // "CSGOIDS1"
+    private static final long LOAD_BATCH_SIZE = 100_000; // Range of row IDs loaded per query
+
+    private final SteamAccountRepository steamAccountRepository;
+    private final CSGOAccountRepository csgoAccountRepository;
+
+    @Value("${user-properties.account-id-index-snapshot-file}")
+    private String ACCOUNT_ID_INDEX_SNAPSHOT_FILE; // File the index is written to on shutdown
+
+    private OffHeapLongSet discovered;
+    private OffHeapLongSet mapped;
+
+    /**
+     * Constructs the index with the repositories it is loaded from.
+     *
+     * @param steamAccountRepository The repository of the discovered accounts.
+     * @param csgoAccountRepository  The repository of the mapped accounts.
+     * @param statisticsService      The service the size of the index is logged with.
+     */
+    public AccountIdIndex(SteamAccountRepository steamAccountRepository,
+                          CSGOAccountRepository csgoAccountRepository,
+                          StatisticsService statisticsService) {
+        this.steamAccountRepository = steamAccountRepository;
+        this.csgoAccountRepository = csgoAccountRepository;
+        statisticsService.register("account id index", this::getStatistics);
+    }
+
+    /**
+     * Loads the index from the snapshot file and the rows stored after it, or completely from the database.
+     */
+    @PostConstruct
+    private void init() {
+        long start = System.currentTimeMillis();
+        long steamAccountCount = steamAccountRepository.count();
+        long csgoAccountCount = csgoAccountRepository.count();
+
+        if (!loadSnapshot(steamAccountCount, csgoAccountCount)) {
+            discovered = new OffHeapLongSet((int) steamAccountCount);
+            mapped = new OffHeapLongSet((int) csgoAccountCount);
+            load(discovered, 0, steamAccountRepository::findMaxId, steamAccountRepository::findId64sInIdRange);
+            load(mapped, 0, csgoAccountRepository::findMaxId, csgoAccountRepository::findId64sInIdRange);
+        }
+
+        LOGGER.info("Loaded {} discovered and {} mapped accounts into the index in {} ms.",
+            discovered.size(), mapped.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Writes the index to the snapshot file.
+     */
+    @PreDestroy
+    private void destroy() {
+        Path file = Path.of(ACCOUNT_ID_INDEX_SNAPSHOT_FILE);
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(3 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(SNAPSHOT_MAGIC).putLong(maxId(steamAccountRepository::findMaxId)).putLong(maxId(csgoAccountRepository::findMaxId)).flip();
+
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                discovered.writeTo(channel);
+                mapped.writeTo(channel);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.info("Wrote snapshot of the account id index to {}.", file);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not write snapshot of the account id index: {}", e.getMessage());
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // The incomplete file is overwritten by the next snapshot
+            }
+        }
+    }
+
+    /**
+     * Checks if an account has been discovered, i.e. is stored as a {@link at.emielregis.backend.data.entities.SteamAccount}.
+     *
+     * @param id64 The SteamID64 of the account.
+     * @return True if the account has been discovered, otherwise false.
+     */
+    public boolean isDiscovered(long id64) {
+        return discovered.contains(id64);
+    }
+
+    /**
+     * Checks if an account has been mapped, i.e. is stored as a {@link at.emielregis.backend.data.entities.CSGOAccount}.
+     *
+     * @param id64 The SteamID64 of the account.
+     * @return True if the account has been mapped, otherwise false.
+     */
+    public boolean isMapped(long id64) {
+        return mapped.contains(id64);
+    }
+
+    /**
+     * Adds a discovered account. Must only be called once the account is committed to the database.
+     *
+     * @param id64 The SteamID64 of the account.
+     */
+    public void addDiscovered(long id64) {
+        discovered.add(id64);
+    }
+
+    /**
+     * Adds a mapped account. Must only be called once the account is committed to the database.
+     *
+     * @param id64 The SteamID64 of the account.
+     */
+    public void addMapped(long id64) {
+        mapped.add(id64);
+    }
+
+    /**
+     * Summarizes the size of the index.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d discovered, %d mapped, %d MB native memory",
+            discovered.size(), mapped.size(), (discovered.memoryBytes() + mapped.memoryBytes()) >> 20);
+    }
+
+    /**
+     * Loads the snapshot file and the rows stored after it.
+     *
+     * @return True if the loaded sets match the stored accounts, otherwise false.
+     */
+    private boolean loadSnapshot(long steamAccountCount, long csgoAccountCount) {
+        Path file = Path.of(ACCOUNT_ID_INDEX_SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(3 * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            if (header.getLong(0) != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a snapshot of the account id index");
+            }
+            discovered = OffHeapLongSet.readFrom(channel);
+            mapped = OffHeapLongSet.readFrom(channel);
+            load(discovered, header.getLong(Long.BYTES), steamAccountRepository::findMaxId, steamAccountRepository::findId64sInIdRange);
+            load(mapped, header.getLong(2 * Long.BYTES), csgoAccountRepository::findMaxId, csgoAccountRepository::findId64sInIdRange);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Could not read snapshot of the account id index, rebuilding it: {}", e.getMessage());
+            return false;
+        }
+
+        // Both ID columns are unique and only committed rows are added, so equal sizes mean equal sets
+        if (discovered.size() != steamAccountCount || mapped.size() != csgoAccountCount) {
+            LOGGER.info("Snapshot of the account id index is outdated, rebuilding it.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the IDs of all rows with a row ID above the given one.
+     */
+    private void load(OffHeapLongSet set, long afterId, Supplier<Long> findMaxId, BiFunction<Long, Long, List<Long>> findId64sInIdRange) {
+        long maxId = maxId(findMaxId);
+        for (long from = afterId; from < maxId; from += LOAD_BATCH_SIZE) {
+            findId64sInIdRange.apply(from, Math.min(from + LOAD_BATCH_SIZE, maxId)).forEach(set::add);
+        }
+    }
+
+    private static long maxId(Supplier<Long> findMaxId) {
+        Long maxId = findMaxId.get();
+        return maxId == null ? 0 : maxId;
+    }
+}
@@ -0,0 +1,123 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.data.entities.CSGOAccount;
+import at.emielregis.backend.data.entities.CSGOInventory;
+import at.emielregis.backend.data.entities.items.ItemCollection;
+import at.emielregis.backend.data.enums.MappingState;
+import at.emielregis.backend.repository.CSGOAccountRepository;
+import at.emielregis.backend.repository.CSGOInventoryRepository;
+import at.emielregis.backend.repository.ItemRepository;
+import at.emielregis.backend.repository.SteamAccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Service for writing mapped CS:GO accounts together with their inventories and item collections in batches.
+ * All rows of a batch are written in a single transaction and flushed once, so Hibernate can send them
+ * as JDBC batches (see the {@code hibernate.jdbc} properties in the application configuration).
+ */
+@Component
+public class CSGOAccountBatchService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final CSGOAccountRepository csgoAccountRepository;
+    private final CSGOInventoryRepository csgoInventoryRepository;
+    private final ItemRepository itemRepository;
+    private final SteamAccountRepository steamAccountRepository;
+
+    private final long startNanos = System.nanoTime();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong accounts = new AtomicLong();
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong writeNanos = new AtomicLong();
+
+    /**
+     * Constructs the service with the provided repositories.
+     *
+     * @param csgoAccountRepository   The repository for managing CS:GO accounts.
+     * @param csgoInventoryRepository The repository for managing CS:GO inventories.
+     * @param itemRepository          The repository for managing item collections.
+     * @param steamAccountRepository  The repository the mapping state of the accounts is updated in.
+     * @param statisticsService       The service the write rates are logged with.
+     */
+    public CSGOAccountBatchService(CSGOAccountRepository csgoAccountRepository,
+                                   CSGOInventoryRepository csgoInventoryRepository,
+                                   ItemRepository itemRepository,
+                                   SteamAccountRepository steamAccountRepository,
+                                   StatisticsService statisticsService) {
+        this.csgoAccountRepository = csgoAccountRepository;
+        this.csgoInventoryRepository = csgoInventoryRepository;
+        this.itemRepository = itemRepository;
+        this.steamAccountRepository = steamAccountRepository;
+        statisticsService.register("account batch writes", this::getStatistics);
+    }
+
+    /**
+     * Saves the accounts, their inventories and item collections in a single transaction, and sets the mapping state
+     * of the accounts to {@link MappingState#MAPPED} or {@link MappingState#PRIVATE} in the same transaction.
+     * The item collections must already reference persistent sub-entities, see {@link ItemService#convert(List)}.
+     *
+     * @param accountList  The accounts to save.
+     * @param privateId64s The Steam ID64s of the accounts whose inventory is private.
+     */
+    @Transactional
+    public void saveAll(List<CSGOAccount> accountList, Set<Long> privateId64s) {
+        LOGGER.info("CSGOAccountBatchService#saveAll({})", accountList.size());
+        long start = System.nanoTime();
+
+        List<ItemCollection> itemCollections = new ArrayList<>();
+        List<CSGOInventory> inventories = new ArrayList<>();
+        for (CSGOAccount account : accountList) {
+            if (account.getCsgoInventory() != null) {
+                inventories.add(account.getCsgoInventory());
+                itemCollections.addAll(account.getCsgoInventory().getItemCollections());
+            }
+        }
+
+        itemRepository.saveAll(itemCollections);
+        csgoInventoryRepository.saveAll(inventories);
+        csgoAccountRepository.saveAll(accountList);
+        csgoAccountRepository.flush(); // single flush for the whole batch
+
+        LocalDateTime now = LocalDateTime.now();
+        Map<Boolean, List<Long>> byPrivacy = accountList.stream()
+            .map(CSGOAccount::getId64)
+            .collect(Collectors.partitioningBy(privateId64s::contains));
+        if (!byPrivacy.get(false).isEmpty()) {
+            steamAccountRepository.updateMappingState(byPrivacy.get(false), MappingState.MAPPED, now);
+        }
+        if (!byPrivacy.get(true).isEmpty()) {
+            steamAccountRepository.updateMappingState(byPrivacy.get(true), MappingState.PRIVATE, now);
+        }
+
+        batches.incrementAndGet();
+        accounts.addAndGet(accountList.size());
+        rows.addAndGet(itemCollections.size() + inventories.size() + accountList.size());
+        writeNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Summarizes the written batches and the rows written per second, both overall and while writing.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        long written = rows.get();
+        double elapsedSeconds = Math.max(System.nanoTime() - startNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        double writingSeconds = Math.max(writeNanos.get(), 1) / (double) TimeUnit.SECONDS.toNanos(1);
+        return String.format("%d accounts, %d rows in %d batches, %.1f rows/s overall, %.1f rows/s while writing",
+            accounts.get(), written, batches.get(), written / elapsedSeconds, written / writingSeconds);
+    }
+}
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.lang.invoke.MethodHandles;
+import java.util.List;
 
 /**
  * Service for managing CS:GO account entities.
@@ -15,15 +16,21 @@ import java.lang.invoke.MethodHandles;
 @Component
 public class CSGOAccountService {
     private final CSGOAccountRepository csgoAccountRepository;
+    private final AccountIdIndex accountIdIndex;
+    private final AccountCounters accountCounters;
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     /**
      * Constructs the service with the provided repository.
      *
      * @param csgoAccountRepository The repository for managing CS:GO accounts.
+     * @param accountIdIndex        The in-memory index of the stored accounts.
+     * @param accountCounters       The in-memory counters of the stored accounts.
      */
-    public CSGOAccountService(CSGOAccountRepository csgoAccountRepository) {
+    public CSGOAccountService(CSGOAccountRepository csgoAccountRepository, AccountIdIndex accountIdIndex, AccountCounters accountCounters) {
         this.csgoAccountRepository = csgoAccountRepository;
+        this.accountIdIndex = accountIdIndex;
+        this.accountCounters = accountCounters;
     }
 
     /**
@@ -34,17 +41,30 @@ public class CSGOAccountService {
     public void save(CSGOAccount account) {
         LOGGER.info("Saving CS:GO account: {}", account.getId64());
         csgoAccountRepository.saveAndFlush(account);
+        onSaved(List.of(account));
     }
 
     /**
      * Checks if an account with the given Steam ID64 exists in the database.
+     * Answered by the {@link AccountIdIndex} without querying the database.
      *
      * @param id64 The Steam ID64 of the account.
      * @return True if the account exists, false otherwise.
      */
-    public boolean containsById64(String id64) {
-        LOGGER.info("Checking if account exists for ID64: {}", id64);
-        return csgoAccountRepository.containsById64(id64);
+    public boolean containsById64(long id64) {
+        return accountIdIndex.isMapped(id64);
+    }
+
+    /**
+     * Adds accounts saved by {@link CSGOAccountBatchService} to the {@link AccountIdIndex} and the
+     * {@link AccountCounters}, once their transaction has been committed.
+     *
+     * @param accounts The saved accounts.
+     */
+    public void onSaved(List<CSGOAccount> accounts) {
+        accounts.forEach(account -> accountIdIndex.addMapped(account.getId64()));
+        accountCounters.add(AccountCounters.Counter.MAPPED, accounts.size());
+        accountCounters.add(AccountCounters.Counter.WITH_INVENTORY, accounts.stream().filter(account -> account.getCsgoInventory() != null).count());
     }
 
     /**
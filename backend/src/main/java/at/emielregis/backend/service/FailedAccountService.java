@@ -0,0 +1,153 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.data.entities.FailedAccount;
+import at.emielregis.backend.data.enums.MappingState;
+import at.emielregis.backend.repository.FailedAccountRepository;
+import at.emielregis.backend.repository.SteamAccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Service for managing {@link FailedAccount} entities.
+ * Accounts whose inventory could not be fetched are stored with the amount of requests sent for them and retried
+ * with an exponentially growing delay, until the configured maximum amount of attempts is reached.
+ */
+@Component
+public class FailedAccountService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final FailedAccountRepository failedAccountRepository;
+    private final SteamAccountRepository steamAccountRepository;
+    private final AccountCounters accountCounters;
+
+    @Value("${user-properties.max-mapping-attempts}")
+    private int MAX_MAPPING_ATTEMPTS; // Max requests per account before it is given up on
+
+    @Value("${user-properties.retry-base-seconds}")
+    private long RETRY_BASE_SECONDS; // Delay before the second request, doubled for every further request
+
+    @Value("${user-properties.retry-max-seconds}")
+    private long RETRY_MAX_SECONDS; // Upper bound for the delay between two requests
+
+    /**
+     * Constructs the service with the provided repository.
+     *
+     * @param failedAccountRepository The repository for managing failed accounts.
+     * @param steamAccountRepository  The repository the mapping state of the accounts is updated in.
+     * @param accountCounters         The in-memory counters of the stored accounts.
+     */
+    public FailedAccountService(FailedAccountRepository failedAccountRepository,
+                                SteamAccountRepository steamAccountRepository,
+                                AccountCounters accountCounters) {
+        this.failedAccountRepository = failedAccountRepository;
+        this.steamAccountRepository = steamAccountRepository;
+        this.accountCounters = accountCounters;
+    }
+
+    /**
+     * Records a failed request for the inventory of an account and sets its mapping state to {@link MappingState#FAILED}.
+     * The stored attempts never decrease, so an account is given up on even if a failure is recorded with an outdated
+     * attempt.
+     *
+     * @param id64    The Steam ID64 of the account.
+     * @param attempt The amount of requests sent for the account so far, including the failed one.
+     * @return True if the account will be retried, false if it has been given up on.
+     */
+    @Transactional
+    public boolean recordFailure(long id64, int attempt) {
+        FailedAccount account = failedAccountRepository.findById64(id64);
+        if (account == null) {
+            account = FailedAccount.builder().id64(id64).build();
+            countAfterCommit(1);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        attempt = Math.max(attempt, account.getAttempts());
+        account.setAttempts(attempt);
+        account.setNotBefore(now.plusSeconds(delaySeconds(attempt)));
+        failedAccountRepository.save(account);
+        steamAccountRepository.updateMappingState(List.of(id64), MappingState.FAILED, now);
+
+        if (attempt >= MAX_MAPPING_ATTEMPTS) {
+            LOGGER.info("Giving up on account {} after {} attempts.", id64, attempt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Claims the failed accounts that are due for a retry. Each claimed account counts the upcoming request as an
+     * attempt and is not due again before the delay of that attempt has passed, so an account is never claimed twice
+     * while its request is in flight, and accounts whose request was lost (e.g. on shutdown) are retried later on.
+     *
+     * @param limit The maximum amount of accounts to claim.
+     * @return The claimed accounts with their updated attempt count.
+     */
+    @Transactional
+    public List<FailedAccount> claimDue(int limit) {
+        LocalDateTime now = LocalDateTime.now();
+        List<FailedAccount> due = failedAccountRepository.findDue(now, MAX_MAPPING_ATTEMPTS, PageRequest.of(0, limit));
+
+        for (FailedAccount account : due) {
+            account.setAttempts(account.getAttempts() + 1);
+            account.setNotBefore(now.plusSeconds(delaySeconds(account.getAttempts())));
+        }
+        if (!due.isEmpty()) {
+            steamAccountRepository.updateMappingState(due.stream().map(FailedAccount::getId64).toList(), MappingState.FAILED, now);
+        }
+
+        LOGGER.info("FailedAccountService#claimDue({}) claimed {} accounts", limit, due.size());
+        return due;
+    }
+
+    /**
+     * Removes an account after its inventory has been fetched successfully.
+     *
+     * @param id64 The Steam ID64 of the account.
+     */
+    @Transactional
+    public void remove(long id64) {
+        countAfterCommit(-failedAccountRepository.deleteById64(id64));
+    }
+
+    /**
+     * Counts the failed accounts that will still be retried.
+     *
+     * @return The count of pending failed accounts.
+     */
+    public long countPending() {
+        return failedAccountRepository.countPending(MAX_MAPPING_ATTEMPTS);
+    }
+
+    /**
+     * Adds to the counter of failed accounts once the current transaction has been committed.
+     *
+     * @param delta The amount of added (positive) or removed (negative) failed accounts.
+     */
+    private void countAfterCommit(int delta) {
+        if (delta == 0) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                accountCounters.add(AccountCounters.Counter.FAILED, delta);
+            }
+        });
+    }
+
+    private long delaySeconds(int attempt) {
+        long delay = RETRY_BASE_SECONDS << Math.min(Math.max(attempt - 1, 0), 30);
+        return Math.min(delay, RETRY_MAX_SECONDS);
+    }
+}
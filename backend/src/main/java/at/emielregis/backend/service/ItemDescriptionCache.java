@@ -0,0 +1,221 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.data.entities.items.*;
+import at.emielregis.backend.data.enums.StickerType;
+import at.emielregis.backend.data.responses.HttpInventoryResponseDeserializer;
+import at.emielregis.backend.data.responses.ItemDescription;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Process-wide cache of parsed item descriptions, keyed by the classId and instanceId Steam assigns to them.
+ * Steam sends the same description for an item in every inventory containing it, so repeated descriptions are
+ * skipped while parsing (see {@link HttpInventoryResponseDeserializer}) and all inventories share the same transient
+ * entities. The names, categories, sets, stickers and charms referenced by descriptions are shared as well.
+ * <p>
+ * The cache holds at most the configured amount of descriptions. Once it is full, descriptions are evicted in
+ * insertion order, except for descriptions that were used since they were last checked, which get a second chance.
+ * The shared names are bounded by the same amount per kind. They come from the item catalog of the game, which is far
+ * smaller, so the bound is only reached with unexpected input - further names are then no longer shared.
+ */
+@Component
+public class ItemDescriptionCache {
+
+    /**
+     * The maximum amount of cached descriptions.
+     */
+    @Value("${user-properties.item-description-cache-size}")
+    private int ITEM_DESCRIPTION_CACHE_SIZE;
+
+    private final StatisticsService statisticsService;
+
+    private final Map<Key, Entry> descriptions = new ConcurrentHashMap<>();
+    private final Queue<Key> evictionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final Map<String, ItemName> itemNames = new ConcurrentHashMap<>();
+    private final Map<String, ItemCategory> itemCategories = new ConcurrentHashMap<>();
+    private final Map<String, ItemSet> itemSets = new ConcurrentHashMap<>();
+    private final Map<String, Sticker> stickers = new ConcurrentHashMap<>();
+    private final Map<String, Charm> charms = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Constructs an empty cache.
+     *
+     * @param statisticsService Service the hit rate and size of the cache are reported to.
+     */
+    public ItemDescriptionCache(StatisticsService statisticsService) {
+        this.statisticsService = statisticsService;
+    }
+
+    /**
+     * Registers the statistics of the cache.
+     */
+    @PostConstruct
+    private void init() {
+        statisticsService.register("item description cache", this::getStatistics);
+    }
+
+    private record Key(String classId, String instanceId) {
+    }
+
+    private static final class Entry {
+        private final ItemDescription description;
+        private volatile boolean used; // Set on every hit, cleared when the entry gets a second chance
+
+        private Entry(ItemDescription description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * Returns the cached description of an item.
+     *
+     * @param classId    The classId of the item.
+     * @param instanceId The instanceId of the item.
+     * @return The cached description, or null if the description is not cached.
+     */
+    public ItemDescription get(String classId, String instanceId) {
+        Entry entry = descriptions.get(new Key(classId, instanceId));
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        if (!entry.used) {
+            entry.used = true;
+        }
+        return entry.description;
+    }
+
+    /**
+     * Caches the description of an item, evicting other descriptions if the cache is full.
+     *
+     * @param classId     The classId of the item.
+     * @param instanceId  The instanceId of the item.
+     * @param description The parsed description.
+     */
+    public void put(String classId, String instanceId, ItemDescription description) {
+        Key key = new Key(classId, instanceId);
+        if (descriptions.putIfAbsent(key, new Entry(description)) != null) {
+            return;
+        }
+
+        evictionOrder.add(key);
+        if (size.incrementAndGet() > ITEM_DESCRIPTION_CACHE_SIZE) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // each key in the queue belongs to exactly one entry, so the queue never holds more keys than the cache
+        for (int checked = 0; checked <= ITEM_DESCRIPTION_CACHE_SIZE; checked++) {
+            Key key = evictionOrder.poll();
+            if (key == null) {
+                return;
+            }
+
+            Entry entry = descriptions.get(key);
+            if (entry == null) {
+                continue;
+            }
+            if (entry.used) {
+                entry.used = false;
+                evictionOrder.add(key);
+                continue;
+            }
+
+            descriptions.remove(key);
+            size.decrementAndGet();
+            evictions.incrementAndGet();
+            return;
+        }
+    }
+
+    /**
+     * Returns the shared item name with the given name.
+     *
+     * @param name The name of the item.
+     * @return The shared transient item name.
+     */
+    public ItemName itemName(String name) {
+        return shared(itemNames, name, n -> ItemName.builder().name(n).build());
+    }
+
+    /**
+     * Returns the shared item category with the given name.
+     *
+     * @param name The name of the category.
+     * @return The shared transient item category.
+     */
+    public ItemCategory itemCategory(String name) {
+        return shared(itemCategories, name, n -> ItemCategory.builder().name(n).build());
+    }
+
+    /**
+     * Returns the shared item set with the given name.
+     *
+     * @param name The name of the set.
+     * @return The shared transient item set.
+     */
+    public ItemSet itemSet(String name) {
+        return shared(itemSets, name, n -> ItemSet.builder().name(n).build());
+    }
+
+    /**
+     * Returns the shared sticker with the given name.
+     *
+     * @param name The name of the sticker.
+     * @return The shared transient sticker.
+     */
+    public Sticker sticker(String name) {
+        return shared(stickers, name, n -> Sticker.builder().name(n).stickerType(StickerType.ofName(n)).build());
+    }
+
+    /**
+     * Returns the shared charm with the given name.
+     *
+     * @param name The name of the charm.
+     * @return The shared transient charm.
+     */
+    public Charm charm(String name) {
+        return shared(charms, name, n -> Charm.builder().name(n).build());
+    }
+
+    private <T> T shared(Map<String, T> instances, String name, Function<String, T> create) {
+        T instance = instances.get(name);
+        if (instance != null) {
+            return instance;
+        }
+        if (instances.size() >= ITEM_DESCRIPTION_CACHE_SIZE) {
+            return create.apply(name);
+        }
+        return instances.computeIfAbsent(name, create);
+    }
+
+    /**
+     * Summarizes the size, hit rate and evictions of the cache.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return String.format("%d/%d descriptions, %d hits, %d misses (%.1f%% hit rate), %d evictions, %d shared names",
+            size.get(), ITEM_DESCRIPTION_CACHE_SIZE, hitCount, total - hitCount,
+            total == 0 ? 0.0 : 100.0 * hitCount / total, evictions.get(), itemNames.size());
+    }
+}
@@ -0,0 +1,28 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.data.responses.HttpInventoryResponse;
+import at.emielregis.backend.data.responses.HttpInventoryResponseDeserializer;
+import com.fasterxml.jackson.databind.Module;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Provides the Jackson {@link Module}s of the application. Spring Boot registers every module bean with the
+ * application's ObjectMapper, which is also used by the message converters of the RestTemplates of the proxies.
+ */
+@Configuration
+public class JacksonModuleProvider {
+
+    /**
+     * Provides the module deserializing inventory responses with the {@link HttpInventoryResponseDeserializer}.
+     *
+     * @param itemDescriptionCache The cache of parsed item descriptions shared by all responses.
+     * @return The configured {@link Module}.
+     */
+    @Bean
+    public Module inventoryResponseModule(ItemDescriptionCache itemDescriptionCache) {
+        return new SimpleModule("InventoryResponseModule")
+            .addDeserializer(HttpInventoryResponse.class, new HttpInventoryResponseDeserializer(itemDescriptionCache));
+    }
+}
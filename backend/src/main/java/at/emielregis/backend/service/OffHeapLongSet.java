@@ -0,0 +1,227 @@
+package at.emielregis.backend.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * Set of positive longs stored in an open-addressing hash table outside of the Java heap.
+ * Every value takes a single slot of 8 bytes in a direct buffer, so even tens of millions of values neither create
+ * objects nor add to the work of the garbage collector. Lookups are lock-free unless they overlap with an insert,
+ * inserts are serialized.
+ */
+final class OffHeapLongSet {
+    private static final int MAX_SLOTS = 1 << 27; // A direct buffer holds at most 2^31 - 1 bytes
+    private static final int EMPTY = 0; // Marks a free slot, 0 is therefore no valid value
+
+    /**
+     * The slots of the set. Replaced as a whole when the set grows, so a lookup always sees a consistent table.
+     */
+    private static final class Table {
+        private final ByteBuffer slots;
+        private final int mask;
+
+        private Table(int capacity) {
+            this.slots = ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            this.mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    private Table table;
+    private int size;
+
+    /**
+     * Creates a set that can hold the expected amount of values without growing.
+     *
+     * @param expectedSize The expected amount of values.
+     */
+    OffHeapLongSet(int expectedSize) {
+        this.table = new Table(capacityFor(expectedSize));
+    }
+
+    /**
+     * Checks if the set contains a value.
+     *
+     * @param value The value to look up.
+     * @return True if the value is contained, otherwise false.
+     */
+    boolean contains(long value) {
+        long stamp = lock.tryOptimisticRead();
+        boolean found = probe(table, value) >= 0;
+        if (lock.validate(stamp)) {
+            return found;
+        }
+
+        stamp = lock.readLock();
+        try {
+            return probe(table, value) >= 0;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Adds a value to the set.
+     *
+     * @param value The value to add, must be positive.
+     * @return True if the value was added, false if it was contained already.
+     */
+    boolean add(long value) {
+        if (value <= EMPTY) {
+            throw new IllegalArgumentException("Only positive values can be stored, got " + value);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            int slot = probe(table, value);
+            if (slot >= 0) {
+                return false;
+            }
+            if ((size + 1) * 2L > table.mask + 1L) {
+                grow();
+                slot = probe(table, value);
+            }
+            table.slots.putLong(~slot * Long.BYTES, value);
+            size++;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return The amount of values in the set.
+     */
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The amount of native memory used by the table.
+     */
+    long memoryBytes() {
+        long stamp = lock.readLock();
+        try {
+            return table.slots.capacity();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Writes the table to a channel, see {@link #readFrom(FileChannel)}.
+     *
+     * @param channel The channel to write to.
+     * @throws IOException If writing fails.
+     */
+    void writeTo(FileChannel channel) throws IOException {
+        long stamp = lock.readLock();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(table.mask + 1).putInt(size).flip();
+            writeFully(channel, header);
+            writeFully(channel, table.slots.duplicate().clear());
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(FileChannel)}.
+     *
+     * @param channel The channel to read from.
+     * @return The set.
+     * @throws IOException If reading fails or the data is not a valid table.
+     */
+    static OffHeapLongSet readFrom(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(2 * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, header);
+        int capacity = header.getInt(0);
+        int size = header.getInt(Integer.BYTES);
+        if (capacity <= 0 || capacity > MAX_SLOTS || Integer.bitCount(capacity) != 1 || size < 0 || size * 2L > capacity) {
+            throw new IOException("Invalid table with " + capacity + " slots and " + size + " values");
+        }
+
+        OffHeapLongSet set = new OffHeapLongSet(0);
+        set.table = new Table(capacity);
+        set.size = size;
+        readFully(channel, set.table.slots.duplicate().clear());
+        return set;
+    }
+
+    /**
+     * Looks up the slot of a value.
+     *
+     * @return The slot containing the value, or the complement of the free slot the value belongs into.
+     */
+    private static int probe(Table table, long value) {
+        int slot = (int) mix(value) & table.mask;
+        while (true) {
+            long stored = table.slots.getLong(slot * Long.BYTES);
+            if (stored == value) {
+                return slot;
+            }
+            if (stored == EMPTY) {
+                return ~slot;
+            }
+            slot = (slot + 1) & table.mask;
+        }
+    }
+
+    private void grow() {
+        if (table.mask + 1 >= MAX_SLOTS) {
+            throw new IllegalStateException("Set can't grow beyond " + MAX_SLOTS / 2 + " values.");
+        }
+
+        Table grown = new Table((table.mask + 1) * 2);
+        for (int slot = 0; slot <= table.mask; slot++) {
+            long value = table.slots.getLong(slot * Long.BYTES);
+            if (value != EMPTY) {
+                grown.slots.putLong(~probe(grown, value) * Long.BYTES, value);
+            }
+        }
+        table = grown;
+    }
+
+    /**
+     * Finalization step of MurmurHash3, spreads the sequential bits of Steam IDs over the whole table.
+     */
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        long capacity = Long.highestOneBit(Math.max(16L, expectedSize * 2L) - 1) << 1;
+        if (capacity > MAX_SLOTS) {
+            throw new IllegalStateException("Set can't hold " + expectedSize + " values.");
+        }
+        return (int) capacity;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+}
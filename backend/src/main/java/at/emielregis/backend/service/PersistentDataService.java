@@ -1,7 +1,9 @@
 package at.emielregis.backend.service;
 
+import at.emielregis.backend.data.entities.FreeGroupPage;
 import at.emielregis.backend.data.entities.PersistentDataStore;
 import at.emielregis.backend.data.entities.SteamGroup;
+import at.emielregis.backend.repository.FreeGroupPageRepository;
 import at.emielregis.backend.repository.PersistentDataRepository;
 import at.emielregis.backend.repository.SteamGroupRepository;
 import org.slf4j.Logger;
@@ -11,8 +13,14 @@ import org.springframework.transaction.annotation.Transactional;
 
 import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
@@ -25,18 +33,47 @@ public class PersistentDataService {
 
     private final PersistentDataRepository persistentDataRepository;
     private final SteamGroupRepository steamGroupRepository;
+    private final FreeGroupPageRepository freeGroupPageRepository;
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
+    /**
+     * The pages of a single group: every page up to the highest page has been handed out, except for the free pages.
+     * Mirrors the group's stored highest page and free page rows, guarded by its own monitor.
+     */
+    private static final class PageAllocator {
+        private final SteamGroup group;
+        private final Set<Integer> freePages; // In the order they were freed
+        private int highestPage;
+        private int totalPages; // 0 while unknown
+
+        private PageAllocator(SteamGroup group, List<Integer> freePages) {
+            this.group = group;
+            this.freePages = new LinkedHashSet<>(freePages);
+            this.highestPage = group.getHighestPage();
+            this.totalPages = group.getTotalPages() == null ? 0 : group.getTotalPages();
+        }
+    }
+
+    /**
+     * Returned by {@link #getNextPage(String)} once all pages of a group have been handed out.
+     */
+    public static final long NO_PAGE = 0;
+
+    private final Map<String, PageAllocator> allocators = new ConcurrentHashMap<>();
+
     /**
      * Constructor for {@link PersistentDataService}.
      *
      * @param persistentDataRepository Repository for accessing {@link PersistentDataStore}.
      * @param steamGroupRepository     Repository for managing {@link SteamGroup} entities.
+     * @param freeGroupPageRepository  Repository for managing {@link FreeGroupPage} entities.
      */
     public PersistentDataService(PersistentDataRepository persistentDataRepository,
-                                 SteamGroupRepository steamGroupRepository) {
+                                 SteamGroupRepository steamGroupRepository,
+                                 FreeGroupPageRepository freeGroupPageRepository) {
         this.persistentDataRepository = persistentDataRepository;
         this.steamGroupRepository = steamGroupRepository;
+        this.freeGroupPageRepository = freeGroupPageRepository;
     }
 
     /**
@@ -105,7 +142,7 @@ public class PersistentDataService {
 
     /**
      * Initializes the Steam groups by creating entities for the provided group names.
-     * Removes groups that are no longer specified in the input list.
+     * Removes groups that are no longer specified in the input list and loads the page allocators of all groups.
      *
      * @param steamGroups The list of Steam group names to initialize.
      * @return The list of initialized Steam groups that are not locked.
@@ -126,7 +163,7 @@ public class PersistentDataService {
 
         steamGroups.forEach(groupName -> {
             if (!groups.contains(SteamGroup.builder().name(groupName).build())) {
-                SteamGroup group = SteamGroup.builder().name(groupName).mappedPages(new ArrayList<>()).build();
+                SteamGroup group = SteamGroup.builder().name(groupName).highestPage(0).mappedPages(new ArrayList<>()).build();
                 steamGroupRepository.save(group);
                 groups.add(group);
             }
@@ -135,34 +172,44 @@ public class PersistentDataService {
         store.setSteamGroups(groups);
         save(store);
 
+        allocators.clear();
+        groups.forEach(group -> {
+            if (group.getHighestPage() == null) {
+                convertMappedPages(group);
+            }
+            allocators.put(group.getName(), new PageAllocator(group, freeGroupPageRepository.findPagesBySteamGroup(group)));
+        });
+
         return groups.stream().filter(group -> !group.isLocked()).collect(Collectors.toList());
     }
 
     /**
      * Retrieves the next unmapped page number for a given Steam group.
+     * Pages that have to be requested again are handed out first, otherwise the page above the highest page handed
+     * out so far, as long as it is within the known amount of pages of the group. Only the group's own allocator is
+     * locked, so groups hand out pages independently of each other.
      *
      * @param currentGroup The name of the group.
-     * @return The next unmapped page number.
+     * @return The next unmapped page number, or {@link #NO_PAGE} if all pages of the group have been handed out.
+     * @throws IllegalArgumentException If the group has not been initialized.
      */
-    @Transactional
-    public synchronized long getNextPage(String currentGroup) {
-        LOGGER.info("PersistentDataService#getNextPage({})", currentGroup);
-
-        PersistentDataStore store = getInstance();
-        List<SteamGroup> groups = store.getSteamGroups();
-        SteamGroup group = getGroupByName(groups, currentGroup);
-        List<Integer> mappedPages = group.getMappedPages();
-
-        int index = 1;
-        while (true) {
-            if (!mappedPages.contains(index)) {
-                mappedPages.add(index);
-                group.setMappedPages(mappedPages);
-                store.setSteamGroups(groups);
-                save(store);
-                return index;
+    public long getNextPage(String currentGroup) {
+        PageAllocator allocator = getAllocator(currentGroup);
+        synchronized (allocator) {
+            Iterator<Integer> freePages = allocator.freePages.iterator();
+            if (freePages.hasNext()) {
+                int freePage = freePages.next();
+                freePages.remove();
+                freeGroupPageRepository.deletePage(allocator.group, freePage);
+                return freePage;
+            }
+            if (allocator.totalPages > 0 && allocator.highestPage >= allocator.totalPages) {
+                return NO_PAGE;
             }
-            ++index;
+            int page = allocator.highestPage + 1;
+            steamGroupRepository.updateHighestPage(allocator.group.getId(), page);
+            allocator.highestPage = page;
+            return page;
         }
     }
 
@@ -171,18 +218,87 @@ public class PersistentDataService {
      *
      * @param currentGroup The name of the group.
      * @param currentPage  The page to be freed.
+     * @throws IllegalArgumentException If the group has not been initialized.
      */
-    @Transactional
-    public synchronized void freePage(String currentGroup, long currentPage) {
-        LOGGER.info("PersistentDataService#freePage({}, {})", currentGroup, currentPage);
-        PersistentDataStore store = getInstance();
-        List<SteamGroup> groups = store.getSteamGroups();
-        SteamGroup group = getGroupByName(groups, currentGroup);
-        List<Integer> mappedPages = group.getMappedPages();
-        mappedPages.removeAll(List.of((int) currentPage));
-        group.setMappedPages(mappedPages);
-        store.setSteamGroups(groups);
-        save(store);
+    public void freePage(String currentGroup, long currentPage) {
+        PageAllocator allocator = getAllocator(currentGroup);
+        synchronized (allocator) {
+            if (currentPage > allocator.highestPage || !allocator.freePages.add((int) currentPage)) {
+                return; // Never handed out or freed already
+            }
+            freeGroupPageRepository.save(FreeGroupPage.builder().steamGroup(allocator.group).page((int) currentPage).build());
+        }
+    }
+
+    /**
+     * Sets the amount of pages of a Steam group, as read from the response of one of its pages. Members joining or
+     * leaving the group change the amount, so it is updated with every response.
+     *
+     * @param currentGroup The name of the group.
+     * @param totalPages   The amount of pages of the group's member list.
+     * @throws IllegalArgumentException If the group has not been initialized.
+     */
+    public void setTotalPages(String currentGroup, int totalPages) {
+        PageAllocator allocator = getAllocator(currentGroup);
+        synchronized (allocator) {
+            if (totalPages <= 0 || totalPages == allocator.totalPages) {
+                return;
+            }
+            steamGroupRepository.updateTotalPages(allocator.group.getId(), totalPages);
+            allocator.totalPages = totalPages;
+        }
+    }
+
+    /**
+     * Returns the amount of pages of a Steam group that {@link #getNextPage(String)} still hands out: the free pages
+     * and the pages above the highest page handed out so far. Doesn't access the database.
+     *
+     * @param currentGroup The name of the group.
+     * @return The amount of remaining pages, or -1 if the amount of pages of the group is not known yet.
+     * @throws IllegalArgumentException If the group has not been initialized.
+     */
+    public int getRemainingPages(String currentGroup) {
+        PageAllocator allocator = getAllocator(currentGroup);
+        synchronized (allocator) {
+            if (allocator.totalPages <= 0) {
+                return -1;
+            }
+            return Math.max(0, allocator.totalPages - allocator.highestPage) + allocator.freePages.size();
+        }
+    }
+
+    /**
+     * Converts the mapped pages of a group stored before the pages were allocated per group: the highest mapped page
+     * becomes the highest page handed out, the pages below it that were never mapped become free pages.
+     *
+     * @param group The group to convert.
+     */
+    private void convertMappedPages(SteamGroup group) {
+        List<Integer> mappedPages = group.getMappedPages() == null ? List.of() : group.getMappedPages();
+        int highestPage = mappedPages.stream().mapToInt(Integer::intValue).max().orElse(0);
+        Set<Integer> mapped = new HashSet<>(mappedPages);
+
+        List<FreeGroupPage> freePages = new ArrayList<>();
+        for (int page = 1; page < highestPage; page++) {
+            if (!mapped.contains(page)) {
+                freePages.add(FreeGroupPage.builder().steamGroup(group).page(page).build());
+            }
+        }
+        freeGroupPageRepository.saveAll(freePages);
+
+        group.setHighestPage(highestPage);
+        group.setMappedPages(new ArrayList<>());
+        steamGroupRepository.save(group);
+        LOGGER.info("Converted {} mapped pages of group {} to highest page {} and {} free pages.",
+            mappedPages.size(), group.getName(), highestPage, freePages.size());
+    }
+
+    private PageAllocator getAllocator(String currentGroup) {
+        PageAllocator allocator = allocators.get(currentGroup);
+        if (allocator == null) {
+            throw new IllegalArgumentException("Group " + currentGroup + " does not exist");
+        }
+        return allocator;
     }
 
     /**
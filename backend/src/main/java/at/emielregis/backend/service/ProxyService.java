@@ -1,30 +1,56 @@
 package at.emielregis.backend.service;
 
 import at.emielregis.backend.runners.httpmapper.CSGOAccountMapper;
+import at.emielregis.backend.service.proxy.ProxyClient;
+import at.emielregis.backend.service.proxy.ProxyClientFactory;
+import at.emielregis.backend.service.proxy.ProxyHealthTracker;
+import at.emielregis.backend.service.proxy.ProxyRateLimiter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
-import java.net.InetSocketAddress;
-import java.net.Proxy;
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
- * Service class for managing HTTP proxies and handling threads for REST template consumers.
+ * Service class for managing HTTP proxies and handling threads for proxy client consumers.
  * This class reads proxy information from a file and distributes proxies evenly among threads
  * to handle requests in a rate-limited and distributed manner.
+ * <p>
+ * Workers are either run on dedicated platform threads or on virtual threads, depending on the configured
+ * {@link ThreadMode}. Virtual threads are only available on Java 21 and above.
  */
 @Component
 public class ProxyService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final double MIN_PROXY_WEIGHT = 1e-6; // Proxies on probation still get a small share of traffic.
+    private static final long SLOT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(5); // Recheck interval for busy proxies.
+    private static final long STOP_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100); // Recheck interval for waiting workers.
+
+    /**
+     * The kind of threads the workers of this service are executed on.
+     */
+    public enum ThreadMode {
+        PLATFORM,
+        VIRTUAL
+    }
 
     /**
      * Maximum number of proxies to read from the `proxies.txt` file.
@@ -33,28 +59,68 @@ public class ProxyService {
     @Value("${user-properties.max-proxies}")
     private int MAX_PROXIES;
 
+    /**
+     * The kind of threads the workers are executed on.
+     */
+    @Value("${user-properties.thread-mode}")
+    private ThreadMode THREAD_MODE;
+
+    private final ProxyClientFactory proxyClientFactory;
+    private final ProxyRateLimiter proxyRateLimiter;
+    private final ProxyHealthTracker proxyHealthTracker;
+
     private List<String[]> proxyParams; // Stores proxy details in [ip, port] format.
-    private List<Thread> currentThreads = new ArrayList<>(); // Active threads managed by this service.
+    private ExecutorService executor; // Executes the workers, either on platform or on virtual threads.
+    private WorkerScope currentScope = new WorkerScope(); // Active workers managed by this service.
+    private final ThreadLocal<WorkerScope> workerScope = new ThreadLocal<>(); // The scope of the calling worker.
+    private volatile boolean shuttingDown = false; // Set once the application context is closed.
+    private final Map<ProxyClient[], ProxyDispatcher> dispatchers = new WeakHashMap<>(); // Dispatchers by their clients.
     private int last_index = 0; // Index for round-robin proxy assignment.
 
     /**
-     * Initializes the proxy parameters by reading the proxy list from the file.
+     * Constructs the service.
+     *
+     * @param proxyClientFactory Creates the HTTP clients for the individual proxies.
+     * @param proxyRateLimiter   Rate limits the requests of the individual proxies.
+     * @param proxyHealthTracker Tracks the health of the individual proxies.
+     */
+    public ProxyService(ProxyClientFactory proxyClientFactory, ProxyRateLimiter proxyRateLimiter, ProxyHealthTracker proxyHealthTracker) {
+        this.proxyClientFactory = proxyClientFactory;
+        this.proxyRateLimiter = proxyRateLimiter;
+        this.proxyHealthTracker = proxyHealthTracker;
+    }
+
+    /**
+     * Initializes the proxy parameters by reading the proxy list from the file
+     * and creates the executor for the configured {@link ThreadMode}.
      * This method is called automatically after dependency injection is complete.
      */
     @PostConstruct
     private void init() {
         proxyParams = getProxies(MAX_PROXIES);
+        executor = createExecutor(THREAD_MODE);
+        LOGGER.info("Running workers on {} threads.", THREAD_MODE);
     }
 
     /**
-     * Creates multiple threads for handling REST template consumers.
+     * Stops the workers once the application context is closed. The workers are never interrupted, since an
+     * interrupted H2 query closes the database, they end once they check {@link #isStopped()}.
+     */
+    @PreDestroy
+    private void destroy() {
+        shuttingDown = true;
+        executor.shutdown();
+    }
+
+    /**
+     * Creates multiple threads for handling proxy client consumers.
      * Each thread is assigned a portion of the available proxies.
      *
      * @param amountOfThreads The number of threads to create.
      * @param amountOfProxies The number of proxies to distribute across threads.
-     * @param consumer        The consumer function to execute on the assigned REST templates.
+     * @param consumer        The consumer function to execute on the assigned proxy clients.
      */
-    public void addRestTemplateConsumerThreads(int amountOfThreads, int amountOfProxies, Consumer<RestTemplate[]> consumer) {
+    public void addProxyClientConsumerThreads(int amountOfThreads, int amountOfProxies, Consumer<ProxyClient[]> consumer) {
         if (amountOfProxies < amountOfThreads) {
             throw new IllegalArgumentException("Proxy amount must exceed or equal thread amount");
         }
@@ -65,7 +131,7 @@ public class ProxyService {
         }
 
         for (int i = 0; i < amountOfThreads; i++) {
-            addRestTemplateConsumerThread(consumer, amounts[i]);
+            addProxyClientConsumerThread(consumer, amounts[i]);
         }
     }
 
@@ -74,52 +140,106 @@ public class ProxyService {
      *
      * @param r The runnable to execute.
      */
-    public void addEmptyThread(Runnable r) {
-        Thread t = new Thread(r);
-        currentThreads.add(t);
-        t.start();
+    public synchronized void addEmptyThread(Runnable r) {
+        currentScope.fork(r);
     }
 
     /**
-     * Creates a thread with a specific number of REST templates assigned to it.
+     * Creates a thread with a specific number of proxy clients assigned to it.
      *
      * @param consumer The consumer function to execute.
-     * @param amount   The number of REST templates (and proxies) to assign to the thread.
+     * @param amount   The number of proxy clients (and proxies) to assign to the thread.
+     */
+    public synchronized void addProxyClientConsumerThread(Consumer<ProxyClient[]> consumer, int amount) {
+        ProxyClient[] clients = createClients(amount);
+        currentScope.fork(() -> consumer.accept(clients));
+    }
+
+    /**
+     * Creates proxy clients for the next proxies in round robin order without assigning them to a thread.
+     * The clients may be shared by several threads, see {@link #awaitReady(ProxyClient[])}.
+     *
+     * @param amount The number of proxy clients (and proxies) to create.
+     * @return The created proxy clients.
      */
-    public void addRestTemplateConsumerThread(Consumer<RestTemplate[]> consumer, int amount) {
-        List<RestTemplate> templates = new ArrayList<>();
+    public synchronized ProxyClient[] createClients(int amount) {
+        ProxyClient[] clients = new ProxyClient[amount];
 
         for (int i = 0; i < amount; i++) {
             last_index = (last_index + 1) % maxThreads();
             String[] currentParams = proxyParams.get(last_index);
 
-            Proxy proxy = new Proxy(Proxy.Type.HTTP, new InetSocketAddress(currentParams[0], Integer.parseInt(currentParams[1])));
-            SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
-            requestFactory.setProxy(proxy);
-            RestTemplate template = new RestTemplate(requestFactory);
+            clients[i] = proxyClientFactory.create(currentParams[0], Integer.parseInt(currentParams[1]));
+        }
+
+        return clients;
+    }
 
-            templates.add(template);
+    /**
+     * Selects a proxy client that may send a request now and takes its token and one of its in-flight permits.
+     * Quarantined proxies (see {@link ProxyHealthTracker}), throttled proxies (see {@link ProxyRateLimiter}) and
+     * proxies without a free in-flight permit are skipped, among the remaining proxies one is chosen randomly, weighted
+     * by its health, so fast and reliable proxies receive more traffic.
+     * <p>
+     * All workers sharing the same clients wait in a single {@link ProxyDispatcher}: only one of them scans the
+     * proxies and, if none is ready, waits until the first of them becomes ready again. Once it got a proxy it hands
+     * the scanning over to the next waiting worker, so the workers don't all scan and wake up at the same time.
+     *
+     * @param clients The proxy clients to choose from.
+     * @return A proxy client that may send a single request. The caller must release its in-flight permit with
+     * {@link ProxyClient#release()} once the request is complete.
+     */
+    public ProxyClient awaitReady(ProxyClient[] clients) {
+        ProxyDispatcher dispatcher;
+        synchronized (dispatchers) {
+            dispatcher = dispatchers.computeIfAbsent(clients, c -> new ProxyDispatcher());
+        }
+        return dispatcher.take(clients);
+    }
+
+    /**
+     * Chooses an index randomly, proportional to the given weights.
+     *
+     * @param weights     The weights of the indices.
+     * @param amount      The amount of valid weights at the start of the array.
+     * @param totalWeight The sum of the valid weights.
+     * @return The chosen index.
+     */
+    private int chooseWeighted(double[] weights, int amount, double totalWeight) {
+        double target = ThreadLocalRandom.current().nextDouble() * totalWeight;
+        for (int i = 0; i < amount - 1; i++) {
+            target -= weights[i];
+            if (target < 0) {
+                return i;
+            }
         }
+        return amount - 1;
+    }
 
-        Thread thread = new Thread(() -> consumer.accept(templates.toArray(new RestTemplate[0])));
-        currentThreads.add(thread);
-        thread.start();
+    /**
+     * Tells a worker to stop, because another worker of its scope failed or the application is shutting down.
+     * Workers check this in their loops and finish their current step first, so they are never interrupted while
+     * they query the database.
+     *
+     * @return True if the calling worker should stop.
+     */
+    public boolean isStopped() {
+        WorkerScope scope = workerScope.get();
+        return shuttingDown || (scope != null && scope.failure != null);
     }
 
     /**
-     * Waits for all active threads to finish execution.
-     * This method blocks the current thread until all threads in the `currentThreads` list are complete.
+     * Waits for all active workers to finish execution.
+     * The workers started since the last call form a single scope: if one of them fails, all others are stopped
+     * (see {@link #isStopped()}) and the failure is rethrown, so no worker outlives the call to this method.
      */
     public void await() {
-        for (Thread t : currentThreads) {
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt(); // Restore the interrupted status.
-                throw new RuntimeException("Thread interrupted while waiting", e);
-            }
+        WorkerScope scope;
+        synchronized (this) {
+            scope = currentScope;
+            currentScope = new WorkerScope();
         }
-        currentThreads = new ArrayList<>();
+        scope.join();
     }
 
     /**
@@ -131,6 +251,26 @@ public class ProxyService {
         return MAX_PROXIES;
     }
 
+    /**
+     * Creates the executor the workers are run on.
+     * Virtual threads are looked up reflectively, since the project still compiles against Java 16.
+     *
+     * @param mode The configured {@link ThreadMode}.
+     * @return The executor for the given mode.
+     */
+    static ExecutorService createExecutor(ThreadMode mode) {
+        if (mode == ThreadMode.VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads require Java 21 or newer, running on " + Runtime.version(), e);
+            }
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger(0);
+        return Executors.newCachedThreadPool(r -> new Thread(r, "worker-" + threadNumber.incrementAndGet()));
+    }
+
     /**
      * Reads proxies from the `proxies.txt` file and limits the number of proxies based on `MAX_PROXIES`.
      * The file should contain proxy entries in `ip:port` format, one per line.
@@ -159,4 +299,173 @@ public class ProxyService {
 
         return proxies;
     }
+
+    /**
+     * A group of workers that is awaited as a whole. The first failing worker stops all other workers of the scope.
+     */
+    private class WorkerScope {
+        private final List<Future<?>> tasks = Collections.synchronizedList(new ArrayList<>());
+        private volatile Throwable failure; // Set by the first failing worker, tells the others to stop
+
+        /**
+         * Starts a worker as part of this scope. Workers that only start after the scope failed return right away.
+         *
+         * @param r The runnable to execute.
+         */
+        void fork(Runnable r) {
+            tasks.add(executor.submit(() -> {
+                workerScope.set(this);
+                try {
+                    if (failure == null) {
+                        r.run();
+                    }
+                } catch (Throwable t) {
+                    fail(t);
+                    throw t;
+                } finally {
+                    workerScope.remove();
+                }
+            }));
+        }
+
+        /**
+         * Records the first failure, which stops all workers of this scope. The workers are not cancelled, so the
+         * scope is only joined once all of them have actually finished.
+         *
+         * @param t The failure of a worker.
+         */
+        private void fail(Throwable t) {
+            synchronized (tasks) {
+                if (failure == null) {
+                    failure = t;
+                    LOGGER.error("Worker failed, stopping {} workers: {}", tasks.size(), t.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Waits until all workers of this scope are finished.
+         */
+        void join() {
+            List<Future<?>> snapshot;
+            synchronized (tasks) {
+                snapshot = new ArrayList<>(tasks);
+            }
+            try {
+                for (Future<?> task : snapshot) {
+                    try {
+                        task.get();
+                    } catch (ExecutionException e) {
+                        // the failure is reported below, the other workers stopped because of it
+                    }
+                }
+            } catch (InterruptedException e) {
+                fail(e);
+                Thread.currentThread().interrupt(); // Restore the interrupted status.
+                throw new RuntimeException("Thread interrupted while waiting", e);
+            }
+            if (failure != null) {
+                throw new IllegalStateException("Worker failed, stopped remaining workers", failure);
+            }
+        }
+    }
+
+    /**
+     * Hands the proxies of one set of clients to the workers waiting for them, like a {@link DelayQueue} does with
+     * its elements: the first waiting worker is the leader, which scans the proxies and waits until the earliest of them
+     * is ready, all other workers wait until they become the leader. The dispatcher doesn't reference the clients, so
+     * it is dropped from {@link #dispatchers} together with them.
+     */
+    private class ProxyDispatcher {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition available = lock.newCondition(); // Signalled when a new leader is needed
+        private Thread leader; // The worker scanning the proxies, null if none
+
+        /**
+         * Waits until one of the given proxies is ready and takes its token and one of its in-flight permits.
+         *
+         * @param clients The proxy clients to choose from.
+         * @return The chosen proxy client.
+         */
+        ProxyClient take(ProxyClient[] clients) {
+            ProxyClient[] candidates = new ProxyClient[clients.length];
+            double[] weights = new double[clients.length];
+
+            lock.lock();
+            try {
+                while (true) {
+                    if (Thread.currentThread().isInterrupted() || isStopped()) {
+                        throw new IllegalStateException("Stopped while waiting for a ready proxy");
+                    }
+                    if (leader != null) {
+                        // wakes up now and then to check whether the worker was stopped
+                        available.awaitNanos(STOP_POLL_NANOS);
+                        continue;
+                    }
+
+                    long now = System.nanoTime();
+                    long earliest = Long.MAX_VALUE;
+                    int amount = 0;
+                    double totalWeight = 0;
+
+                    for (ProxyClient client : clients) {
+                        String key = client.getKey();
+                        if (!proxyHealthTracker.isAvailable(key)) {
+                            earliest = Math.min(earliest, proxyHealthTracker.availableAt(key) - now);
+                            continue;
+                        }
+                        // compared with the current time, since the limiter reads the clock after `now`
+                        long readyIn = proxyRateLimiter.nextAvailableAt(key) - System.nanoTime();
+                        if (readyIn > 0) {
+                            earliest = Math.min(earliest, readyIn);
+                            continue;
+                        }
+                        if (!client.hasFreeSlot()) {
+                            earliest = Math.min(earliest, SLOT_POLL_NANOS);
+                            continue;
+                        }
+                        candidates[amount] = client;
+                        weights[amount] = Math.max(proxyHealthTracker.weight(key), MIN_PROXY_WEIGHT);
+                        totalWeight += weights[amount];
+                        ++amount;
+                    }
+
+                    while (amount > 0) {
+                        int chosen = chooseWeighted(weights, amount, totalWeight);
+                        ProxyClient client = candidates[chosen];
+                        if (client.tryAcquire()) {
+                            if (proxyRateLimiter.tryAcquire(client.getKey())) {
+                                return client;
+                            }
+                            client.release();
+                        }
+                        // the proxy is used outside this dispatcher too, e.g. for further pages of an inventory
+                        totalWeight -= weights[chosen];
+                        --amount;
+                        candidates[chosen] = candidates[amount];
+                        weights[chosen] = weights[amount];
+                    }
+
+                    Thread thisThread = Thread.currentThread();
+                    leader = thisThread;
+                    try {
+                        available.awaitNanos(Math.min(Math.max(earliest, TimeUnit.MILLISECONDS.toNanos(1)), STOP_POLL_NANOS));
+                    } finally {
+                        if (leader == thisThread) {
+                            leader = null;
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt(); // Restore the interrupted status.
+                throw new IllegalStateException("Stopped while waiting for a ready proxy", e);
+            } finally {
+                if (leader == null && lock.hasWaiters(available)) {
+                    // the next waiting worker takes over scanning
+                    available.signal();
+                }
+                lock.unlock();
+            }
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package at.emielregis.backend.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the handling of non-blocking responses, e.g. parsing inventories while their bodies arrive, queueing them for
+ * persisting and recording failed jobs. These steps may block or query the database, so they never run on the threads of the shared HTTP client,
+ * which would stall every other response in flight.
+ */
+@Component
+public class ResponseHandlerExecutor {
+
+    /**
+     * The amount of threads handling responses.
+     */
+    @Value("${user-properties.response-handler-threads}")
+    private int RESPONSE_HANDLER_THREADS;
+
+    private final StatisticsService statisticsService;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Constructs the executor.
+     *
+     * @param statisticsService Service the statistics of the executor are reported to.
+     */
+    public ResponseHandlerExecutor(StatisticsService statisticsService) {
+        this.statisticsService = statisticsService;
+    }
+
+    /**
+     * Creates the threads once the properties are set.
+     */
+    @PostConstruct
+    private void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(RESPONSE_HANDLER_THREADS, r -> {
+            Thread thread = new Thread(r, "response-handler-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        statisticsService.register("response handlers", this::getStatistics);
+    }
+
+    /**
+     * Stops the threads once the queued responses are handled, without interrupting them.
+     */
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the executor to pass to the asynchronous stages of a response, e.g.
+     * {@link java.util.concurrent.CompletableFuture#handleAsync(java.util.function.BiFunction, Executor)}.
+     *
+     * @return The executor.
+     */
+    public Executor get() {
+        return executor;
+    }
+
+    /**
+     * Describes the threads and the queued responses.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d of %d threads active, %d responses queued",
+            executor.getActiveCount(), executor.getMaximumPoolSize(), executor.getQueue().size());
+    }
+}
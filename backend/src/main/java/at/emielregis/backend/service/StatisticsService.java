@@ -0,0 +1,80 @@
+package at.emielregis.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Service for periodically logging runtime statistics of other components.
+ * Components register a named supplier once, which is then logged in the configured interval.
+ */
+@Component
+public class StatisticsService {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * The interval in which all registered statistics are logged.
+     */
+    @Value("${user-properties.statistics-interval-seconds}")
+    private int STATISTICS_INTERVAL_SECONDS;
+
+    private final Map<String, Supplier<String>> statistics = new ConcurrentSkipListMap<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Starts the periodic logging of the registered statistics.
+     */
+    @PostConstruct
+    private void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "statistics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::log, STATISTICS_INTERVAL_SECONDS, STATISTICS_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic logging and logs the statistics a last time.
+     */
+    @PreDestroy
+    private void destroy() {
+        // Not interrupted, statistics may query the database and an interrupted H2 file channel closes the database
+        scheduler.shutdown();
+        log();
+    }
+
+    /**
+     * Registers a statistic to be logged periodically. Registering the same name again replaces the statistic.
+     *
+     * @param name     The name the statistic is logged with.
+     * @param supplier Supplies the current value of the statistic.
+     */
+    public void register(String name, Supplier<String> supplier) {
+        statistics.put(name, supplier);
+    }
+
+    /**
+     * Logs all registered statistics.
+     */
+    public void log() {
+        statistics.forEach((name, supplier) -> {
+            try {
+                LOGGER.info("Statistics - {}: {}", name, supplier.get());
+            } catch (Exception e) {
+                LOGGER.error("Statistics - {} could not be computed: {}", name, e.getMessage());
+            }
+        });
+    }
+}
@@ -1,15 +1,23 @@
 package at.emielregis.backend.service;
 
 import at.emielregis.backend.data.entities.SteamAccount;
+import at.emielregis.backend.data.enums.MappingState;
 import at.emielregis.backend.repository.SteamAccountRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
 import java.lang.invoke.MethodHandles;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
 
 /**
  * Service class for managing {@link SteamAccount} entities.
@@ -20,50 +28,58 @@ public class SteamAccountService {
     private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private final SteamAccountRepository steamAccountRepository;
-    private List<String> ids = new ArrayList<>();
+    private final AccountIdIndex accountIdIndex;
+    private final UnmappedAccountFrontier unmappedAccountFrontier;
+    private final AccountCounters accountCounters;
+
+    private final Set<Long> pendingId64s = ConcurrentHashMap.newKeySet(); // Being inserted by one of the threads
 
     /**
      * Constructor for {@link SteamAccountService}.
      *
      * @param steamAccountRepository The repository for {@link SteamAccount}.
+     * @param accountIdIndex          The in-memory index of the stored accounts.
+     * @param unmappedAccountFrontier The buffer of unmapped IDs.
+     * @param accountCounters         The in-memory counters of the stored accounts.
+     * @param statisticsService       The service the mapping states are logged with.
      */
-    public SteamAccountService(SteamAccountRepository steamAccountRepository) {
+    public SteamAccountService(SteamAccountRepository steamAccountRepository,
+                               AccountIdIndex accountIdIndex,
+                               UnmappedAccountFrontier unmappedAccountFrontier,
+                               AccountCounters accountCounters,
+                               StatisticsService statisticsService) {
         this.steamAccountRepository = steamAccountRepository;
+        this.accountIdIndex = accountIdIndex;
+        this.unmappedAccountFrontier = unmappedAccountFrontier;
+        this.accountCounters = accountCounters;
+        statisticsService.register("account mapping states", this::getStatistics);
     }
 
     /**
-     * Initializes the service by fetching unmapped SteamAccount IDs from the database.
+     * Assigns a mapping state to the accounts stored before the state was introduced.
+     * Accounts with a stored CSGO account are considered mapped, since private inventories were not recorded.
      */
-    public synchronized void init() {
-        LOGGER.info("SteamAccountService#init()");
-        ids = new ArrayList<>(steamAccountRepository.findAllUnmappedIDs());
-        Collections.shuffle(ids); // Shuffle to ensure random selection.
+    @PostConstruct
+    private void init() {
+        int initialized = steamAccountRepository.initializeMappingStates(MappingState.MAPPED, MappingState.FAILED, MappingState.DISCOVERED);
+        if (initialized > 0) {
+            LOGGER.info("Assigned a mapping state to {} accounts.", initialized);
+        }
     }
 
     /**
-     * Retrieves the next set of unmapped SteamAccount IDs.
+     * Retrieves the next set of unmapped SteamAccount IDs from the {@link UnmappedAccountFrontier}.
      *
      * @param amount The number of IDs to retrieve.
-     * @return A list of SteamAccount IDs.
+     * @return An array of SteamAccount IDs, smaller than requested if not enough unmapped accounts are stored.
      */
-    public synchronized List<String> findNextIds(long amount) {
+    public long[] findNextIds(long amount) {
         LOGGER.info("SteamAccountService#findNextIds({})", amount);
 
-        if (ids.size() < 1_000) { // Fetch new IDs if the remaining count is low.
-            init();
-        }
-
         if (amount <= 0) {
-            return List.of();
-        }
-
-        if (amount > ids.size()) {
-            throw new IllegalStateException("Insufficient IDs left to supply the mapper.");
+            return new long[0];
         }
-
-        List<String> result = ids.subList(0, (int) amount);
-        ids = ids.subList((int) amount, ids.size());
-        return result;
+        return unmappedAccountFrontier.take((int) Math.min(amount, Integer.MAX_VALUE));
     }
 
     /**
@@ -77,23 +93,81 @@ public class SteamAccountService {
     }
 
     /**
-     * Checks if a SteamAccount with the given ID exists in the database.
+     * Counts the Steam accounts in a mapping state, using the index on the state.
+     *
+     * @param state The mapping state.
+     * @return The count of accounts in the state.
+     */
+    public long countByState(MappingState state) {
+        return steamAccountRepository.countByMappingState(state);
+    }
+
+    /**
+     * Counts the Steam accounts in each mapping state.
      *
-     * @param current The SteamAccount ID to check.
-     * @return {@code true} if the account exists, otherwise {@code false}.
+     * @return A single line summary.
      */
-    public boolean containsById64(String current) {
-        LOGGER.info("SteamAccountService#containsById64({})", current);
-        return steamAccountRepository.containsById64(current);
+    public String getStatistics() {
+        Map<MappingState, Long> counts = new EnumMap<>(MappingState.class);
+        for (MappingState state : MappingState.values()) {
+            counts.put(state, countByState(state));
+        }
+        return counts.entrySet().stream()
+            .map(entry -> entry.getKey().name().toLowerCase() + ": " + entry.getValue())
+            .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Releases accounts that were handed out to the mappers but are not mapped by them, so they don't stay
+     * {@link MappingState#IN_FLIGHT} until the next start. Only accounts that are still in flight are changed.
+     *
+     * @param id64s The SteamID64s of the accounts.
+     * @param state {@link MappingState#DISCOVERED} to map them again later, or {@link MappingState#MAPPED} if they
+     *              turned out to be mapped already.
+     */
+    @Transactional
+    public void releaseInFlight(Collection<Long> id64s, MappingState state) {
+        if (!id64s.isEmpty()) {
+            steamAccountRepository.replaceInFlightState(id64s, state);
+        }
     }
 
     /**
-     * Saves a list of {@link SteamAccount} entities to the database.
+     * Stores the accounts of the given SteamID64s that have not been discovered yet. IDs known to the
+     * {@link AccountIdIndex} are skipped, the others are inserted with a single statement that skips the stored ones.
+     * Safe to call concurrently without a shared lock: every ID is claimed by a single thread before it is inserted,
+     * since H2 rejects an insert right away if another transaction inserted the same ID and has not committed yet.
+     * If that happens anyway, e.g. because another process writes to the database, the statement is run once more.
      *
-     * @param accountList The list of accounts to save.
+     * @param id64s The SteamID64s, e.g. the members of a group page. Duplicates and non-positive IDs are ignored.
+     * @return The amount of newly stored accounts.
      */
-    public void saveAll(List<SteamAccount> accountList) {
-        LOGGER.info("SteamAccountService#saveAll({})", accountList.size());
-        steamAccountRepository.saveAll(accountList);
+    public int saveMissing(long[] id64s) {
+        Set<Long> candidates = new LinkedHashSet<>();
+        for (long id64 : id64s) {
+            // IDs claimed by another thread are counted as new by that thread
+            if (id64 > 0 && !accountIdIndex.isDiscovered(id64) && !candidates.contains(id64) && pendingId64s.add(id64)) {
+                candidates.add(id64);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            int inserted;
+            try {
+                inserted = steamAccountRepository.insertMissing(candidates, MappingState.DISCOVERED.ordinal());
+            } catch (DataIntegrityViolationException e) {
+                // the failed statement stored none of the IDs, the conflicting insert may have committed by now
+                inserted = steamAccountRepository.insertMissing(candidates, MappingState.DISCOVERED.ordinal());
+            }
+
+            candidates.forEach(accountIdIndex::addDiscovered);
+            accountCounters.add(AccountCounters.Counter.DISCOVERED, inserted);
+            return inserted;
+        } finally {
+            pendingId64s.removeAll(candidates);
+        }
     }
 }
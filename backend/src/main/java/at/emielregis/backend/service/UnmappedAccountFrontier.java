@@ -0,0 +1,275 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.data.enums.MappingState;
+import at.emielregis.backend.repository.SteamAccountRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.invoke.MethodHandles;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Buffer of unmapped Steam IDs that the account mappers take their IDs from.
+ * The {@link MappingState#DISCOVERED} accounts are read in blocks in the order of their row IDs, each block continuing
+ * after the last row ID of the previous one (keyset paging) with a range scan of the index on the mapping state and the
+ * row ID, so every query reads a full block however sparse the row IDs of the accounts are. Once all accounts have been
+ * read, the next block starts over at the first row, which picks up accounts committed or released behind the cursor.
+ * Every block is shuffled on its own and appended to a ring buffer of primitive longs. Blocks are read by a background
+ * thread as soon as the buffer is half empty, so taking IDs usually doesn't wait for the database at all.
+ */
+@Component
+public class UnmappedAccountFrontier {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final SteamAccountRepository steamAccountRepository;
+
+    @Value("${user-properties.frontier-capacity}")
+    private int FRONTIER_CAPACITY; // Max unmapped IDs kept in memory
+
+    @Value("${user-properties.frontier-block-size}")
+    private int FRONTIER_BLOCK_SIZE; // Max IDs read per query, the IDs of a block are shuffled
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition refilled = lock.newCondition();
+
+    // Guarded by lock
+    private long[] buffer;
+    private int head; // Index of the next ID to take
+    private int size;
+    private long cursor; // Last row ID read, 0 once all accounts have been read
+    private boolean refilling;
+    private boolean closed;
+    private long requestedRound; // Refills requested by callers that ran out of IDs
+    private long completedRound; // Requested refills that have been completed
+
+    private ExecutorService prefetcher;
+
+    private final AtomicLong queries = new AtomicLong();
+    private final AtomicLong readIds = new AtomicLong();
+    private final AtomicLong takenIds = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * Constructs the frontier with the repository the unmapped IDs are read from.
+     *
+     * @param steamAccountRepository The repository for Steam accounts.
+     * @param statisticsService      The service the buffer statistics are logged with.
+     */
+    public UnmappedAccountFrontier(SteamAccountRepository steamAccountRepository, StatisticsService statisticsService) {
+        this.steamAccountRepository = steamAccountRepository;
+        statisticsService.register("unmapped account frontier", this::getStatistics);
+    }
+
+    /**
+     * Allocates the buffer and starts the background thread the blocks are read with. Accounts that were handed out
+     * in a previous session but never completed are made available again.
+     */
+    @PostConstruct
+    private void init() {
+        if (FRONTIER_BLOCK_SIZE <= 0 || FRONTIER_BLOCK_SIZE > FRONTIER_CAPACITY) {
+            throw new IllegalStateException("frontier-block-size must be positive and not larger than frontier-capacity.");
+        }
+        int reset = steamAccountRepository.replaceMappingState(MappingState.IN_FLIGHT, MappingState.DISCOVERED);
+        if (reset > 0) {
+            LOGGER.info("Reset {} accounts that were in flight when the last session ended.", reset);
+        }
+        buffer = new long[FRONTIER_CAPACITY];
+        prefetcher = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "account-frontier");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops reading blocks and releases all callers waiting for IDs.
+     */
+    @PreDestroy
+    private void destroy() {
+        lock.lock();
+        try {
+            closed = true;
+            refilled.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        // Not interrupted, an interrupted H2 file channel closes the whole database
+        prefetcher.shutdown();
+        try {
+            if (!prefetcher.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.error("Reading unmapped accounts did not finish within 30 seconds.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes unmapped IDs. If not enough IDs are buffered, waits until enough IDs have been read or the database has
+     * been read up to the most recently stored account.
+     *
+     * @param amount The amount of IDs to take.
+     * @return The IDs, fewer than requested (or none) if not enough unmapped accounts are stored.
+     */
+    public long[] take(int amount) {
+        lock.lock();
+        try {
+            if (size < amount) {
+                long round = ++requestedRound;
+                startRefill();
+
+                long start = System.nanoTime();
+                while (size < amount && completedRound < round && !closed) {
+                    refilled.awaitUninterruptibly();
+                }
+                waitNanos.addAndGet(System.nanoTime() - start);
+            }
+
+            long[] ids = new long[Math.min(amount, size)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = buffer[head];
+                head = (head + 1) % buffer.length;
+            }
+            size -= ids.length;
+            takenIds.addAndGet(ids.length);
+
+            // Prefetch the next blocks before the buffer runs dry
+            if (size < buffer.length / 2) {
+                startRefill();
+            }
+            return ids;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Summarizes the buffered and read IDs.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        lock.lock();
+        try {
+            return String.format("%d buffered, cursor at row %d, %d queries, %d read, %d taken, %d ms waited",
+                size, cursor, queries.get(), readIds.get(), takenIds.get(), TimeUnit.NANOSECONDS.toMillis(waitNanos.get()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Starts a refill in the background unless one is running already. Must be called holding the lock.
+     */
+    private void startRefill() {
+        if (!refilling && !closed) {
+            refilling = true;
+            prefetcher.execute(this::refill);
+        }
+    }
+
+    /**
+     * Reads blocks until the buffer is full or all stored accounts have been read. The accounts of a block are
+     * marked as {@link MappingState#IN_FLIGHT} before they are buffered, so they are never handed out twice.
+     */
+    private void refill() {
+        long round;
+        lock.lock();
+        try {
+            round = requestedRound;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            while (true) {
+                long after;
+                lock.lock();
+                try {
+                    if (closed || buffer.length - size < FRONTIER_BLOCK_SIZE) {
+                        break;
+                    }
+                    after = cursor;
+                } finally {
+                    lock.unlock();
+                }
+
+                List<Object[]> page = steamAccountRepository.findNextByState(MappingState.DISCOVERED, after, PageRequest.of(0, FRONTIER_BLOCK_SIZE));
+                long last = after;
+                long[] block = new long[0];
+                if (!page.isEmpty()) {
+                    List<Long> ids = page.stream().map(row -> (Long) row[0]).toList();
+                    last = ids.get(ids.size() - 1);
+                    if (steamAccountRepository.markInFlight(ids, LocalDateTime.now()) == ids.size()) {
+                        block = shuffle(page.stream().map(row -> (Long) row[1]).toList());
+                    } else {
+                        // some of the accounts changed their state in the meantime, only the ones marked are handed out
+                        block = shuffle(steamAccountRepository.findId64sByIdsAndState(ids, MappingState.IN_FLIGHT));
+                    }
+                }
+                queries.incrementAndGet();
+                readIds.addAndGet(block.length);
+
+                boolean readAll = page.size() < FRONTIER_BLOCK_SIZE;
+                lock.lock();
+                try {
+                    for (long id64 : block) {
+                        buffer[(head + size) % buffer.length] = id64;
+                        size++;
+                    }
+                    cursor = readAll ? 0 : last;
+                    refilled.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+                if (readAll) {
+                    break;
+                }
+            }
+        } catch (RuntimeException e) {
+            LOGGER.error("Reading unmapped accounts failed: {}", e.getMessage());
+        } finally {
+            lock.lock();
+            try {
+                refilling = false;
+                completedRound = Math.max(completedRound, round);
+                if (requestedRound > completedRound) {
+                    startRefill();
+                }
+                refilled.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static long[] shuffle(List<Long> ids) {
+        long[] block = new long[ids.size()];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = ids.get(i);
+        }
+
+        Random random = ThreadLocalRandom.current();
+        for (int i = block.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long id = block[i];
+            block[i] = block[j];
+            block[j] = id;
+        }
+        return block;
+    }
+}
@@ -14,7 +14,7 @@ public class UrlProvider {
      * @param id64 The Steam ID64 of the user.
      * @return The constructed URL for the inventory request.
      */
-    public String getFirstInventoryRequestUri(String id64) {
+    public String getFirstInventoryRequestUri(long id64) {
         return "https://steamcommunity.com/inventory/" + id64 + "/730/2?l=english";
     }
 
@@ -25,7 +25,7 @@ public class UrlProvider {
      * @param lastAssetId The last asset ID from the previous request.
      * @return The constructed URL for the inventory request.
      */
-    public String getInventoryRequestUriWithStart(String id64, String lastAssetId) {
+    public String getInventoryRequestUriWithStart(long id64, String lastAssetId) {
         return "https://steamcommunity.com/inventory/" + id64 + "/730/2?l=english&start_assetid=" + lastAssetId;
     }
 
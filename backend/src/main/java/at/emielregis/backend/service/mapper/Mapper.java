@@ -1,21 +1,44 @@
 package at.emielregis.backend.service.mapper;
 
 import at.emielregis.backend.data.entities.items.*;
+import at.emielregis.backend.data.enums.Exterior;
+import at.emielregis.backend.data.enums.Rarity;
+import at.emielregis.backend.data.enums.SpecialItemType;
+import at.emielregis.backend.data.enums.StickerType;
 import at.emielregis.backend.repository.*;
+import at.emielregis.backend.service.StatisticsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import java.lang.invoke.MethodHandles;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * Mapper component that converts transient items to persistent entities,
  * ensuring that sub-entities like ItemName, Stickers, and Charms are stored
  * only once in the database. This helps maintain data integrity and reduces
- * redundancy by reusing existing database entries.
+ * redundancy by reusing existing database entries. The transient entities are never
+ * saved themselves, since they are shared between inventories (see
+ * {@link at.emielregis.backend.service.ItemDescriptionCache}).
+ * <p>
+ * All stored sub-entities are kept in memory by their natural key, loaded once at startup and extended whenever a
+ * new sub-entity is stored, so mapping items whose sub-entities are already known doesn't query the database.
+ * Items are mapped concurrently. New sub-entities are stored under a lock for their natural key only, so storing two
+ * different new sub-entities never blocks, while the same sub-entity is never stored twice by this process.
+ * Names, categories, sets, stickers and charms are also unique in the database. Item types are not: most columns of
+ * their natural key are nullable and NULLs never conflict in a unique constraint, so item types rely on the lock alone.
  */
 @Component
 public class Mapper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
 
     private final ItemTypeRepository itemTypeRepository;
     private final StickerRepository stickerRepository;
@@ -23,6 +46,59 @@ public class Mapper {
     private final ItemCategoryRepository itemCategoryRepository;
     private final ItemNameRepository itemNameRepository;
     private final ItemSetRepository itemSetRepository;
+    private final StatisticsService statisticsService;
+
+    // Stored sub-entities by their natural key
+    private final Dictionary<String, ItemSet> itemSets = new Dictionary<>();
+    private final Dictionary<String, ItemCategory> itemCategories = new Dictionary<>();
+    private final Dictionary<String, ItemName> itemNames = new Dictionary<>();
+    private final Dictionary<StickerKey, Sticker> stickers = new Dictionary<>();
+    private final Dictionary<String, Charm> charms = new Dictionary<>();
+    private final Dictionary<ItemTypeKey, ItemType> itemTypes = new Dictionary<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The stored entities of one type by their natural key, and the locks of the keys whose entity is being stored.
+     */
+    private static final class Dictionary<K, V> {
+        private final Map<K, V> entries = new ConcurrentHashMap<>();
+        private final Map<K, Object> locks = new ConcurrentHashMap<>();
+
+        private void preload(K key, V entity) {
+            entries.putIfAbsent(key, entity);
+        }
+
+        private int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Natural key of a {@link Sticker}.
+     */
+    private record StickerKey(String name, StickerType stickerType) {
+    }
+
+    /**
+     * Natural key of an {@link ItemType}, referencing its stored sub-entities by their IDs.
+     */
+    private record ItemTypeKey(Long setId, Long categoryId, Long nameId, Exterior exterior, Rarity rarity,
+                               SpecialItemType specialItemType, String marketHashName) {
+
+        private static ItemTypeKey of(ItemType type) {
+            return new ItemTypeKey(
+                type.getItemSet() == null ? null : type.getItemSet().getId(),
+                type.getCategory() == null ? null : type.getCategory().getId(),
+                type.getItemName() == null ? null : type.getItemName().getId(),
+                type.getExterior(),
+                type.getRarity(),
+                type.getSpecialItemType(),
+                type.getMarketHashName()
+            );
+        }
+    }
 
     /**
      * Constructs a new Mapper with the required repositories.
@@ -33,31 +109,50 @@ public class Mapper {
      * @param itemCategoryRepository Repository for ItemCategory entities.
      * @param itemNameRepository     Repository for ItemName entities.
      * @param itemSetRepository      Repository for ItemSet entities.
+     * @param statisticsService      Service the cache statistics are logged with.
      */
     public Mapper(ItemTypeRepository itemTypeRepository,
                   StickerRepository stickerRepository,
                   CharmRepository charmRepository,
                   ItemCategoryRepository itemCategoryRepository,
                   ItemNameRepository itemNameRepository,
-                  ItemSetRepository itemSetRepository) {
+                  ItemSetRepository itemSetRepository,
+                  StatisticsService statisticsService) {
         this.itemTypeRepository = itemTypeRepository;
         this.stickerRepository = stickerRepository;
         this.charmRepository = charmRepository;
         this.itemCategoryRepository = itemCategoryRepository;
         this.itemNameRepository = itemNameRepository;
         this.itemSetRepository = itemSetRepository;
+        this.statisticsService = statisticsService;
+    }
+
+    /**
+     * Loads all stored sub-entities into memory.
+     */
+    @PostConstruct
+    private void init() {
+        itemSetRepository.findAll().forEach(set -> itemSets.preload(set.getName(), set));
+        itemCategoryRepository.findAll().forEach(category -> itemCategories.preload(category.getName(), category));
+        itemNameRepository.findAll().forEach(name -> itemNames.preload(name.getName(), name));
+        stickerRepository.findAll().forEach(sticker -> stickers.preload(new StickerKey(sticker.getName(), sticker.getStickerType()), sticker));
+        charmRepository.findAll().forEach(charm -> charms.preload(charm.getName(), charm));
+        itemTypeRepository.findAll().forEach(type -> itemTypes.preload(ItemTypeKey.of(type), type));
+
+        LOGGER.info("Loaded {} item types, {} names, {} sets, {} categories, {} stickers and {} charms.",
+            itemTypes.size(), itemNames.size(), itemSets.size(), itemCategories.size(), stickers.size(), charms.size());
+        statisticsService.register("item dictionary cache", this::getStatistics);
     }
 
     /**
      * Maps a transient {@link ItemCollection} to a persistent entity,
      * ensuring that sub-entities are stored only once in the database.
-     * This method is synchronized to prevent race conditions when accessing
-     * or modifying shared resources.
+     * This method may be called by multiple threads concurrently.
      *
      * @param transientItem The transient {@link ItemCollection} to be mapped.
      * @return The persistent {@link ItemCollection} entity.
      */
-    public synchronized ItemCollection convertToNonTransient(ItemCollection transientItem) {
+    public ItemCollection convertToNonTransient(ItemCollection transientItem) {
         return ItemCollection.builder()
             .amount(transientItem.getAmount())
             .nameTag(transientItem.getNameTag())
@@ -80,74 +175,55 @@ public class Mapper {
         ItemCategory storedCategory = null;
         ItemName storedName = null;
 
-        boolean isSetStored = false;
-        boolean isCategoryStored = false;
-        boolean isNameStored = false;
-
         // Map ItemSet
         if (itemType.getItemSet() != null) {
-            storedSet = itemSetRepository.findByName(itemType.getItemSet().getName());
-            if (storedSet == null) {
-                storedSet = itemSetRepository.save(itemType.getItemSet());
-            } else {
-                isSetStored = true;
-            }
-        } else {
-            isSetStored = true;
+            String name = itemType.getItemSet().getName();
+            storedSet = canonical(itemSets, name,
+                () -> itemSetRepository.findByName(name),
+                () -> itemSetRepository.save(ItemSet.builder().name(name).build()));
         }
 
         // Map ItemCategory
         if (itemType.getCategory() != null) {
-            storedCategory = itemCategoryRepository.findByName(itemType.getCategory().getName());
-            if (storedCategory == null) {
-                storedCategory = itemCategoryRepository.save(itemType.getCategory());
-            } else {
-                isCategoryStored = true;
-            }
-        } else {
-            isCategoryStored = true;
+            String name = itemType.getCategory().getName();
+            storedCategory = canonical(itemCategories, name,
+                () -> itemCategoryRepository.findByName(name),
+                () -> itemCategoryRepository.save(ItemCategory.builder().name(name).build()));
         }
 
         // Map ItemName
         if (itemType.getItemName() != null) {
-            storedName = itemNameRepository.findByName(itemType.getItemName().getName());
-            if (storedName == null) {
-                storedName = itemNameRepository.save(itemType.getItemName());
-            } else {
-                isNameStored = true;
-            }
-        } else {
-            isNameStored = true;
+            String name = itemType.getItemName().getName();
+            storedName = canonical(itemNames, name,
+                () -> itemNameRepository.findByName(name),
+                () -> itemNameRepository.save(ItemName.builder().name(name).build()));
         }
 
-        // Check if the ItemType already exists to prevent duplicates
-        if (isSetStored && isCategoryStored && isNameStored) {
-            ItemType storedType = itemTypeRepository.findByEquality(
-                storedSet,
-                storedCategory,
-                storedName,
-                itemType.getExterior(),
-                itemType.getRarity(),
-                itemType.getSpecialItemType(),
-                itemType.getMarketHashName()
-            );
-            if (storedType != null) {
-                return storedType;
-            }
-        }
+        ItemType type = ItemType.builder()
+            .itemName(storedName)
+            .category(storedCategory)
+            .itemSet(storedSet)
+            .exterior(itemType.getExterior())
+            .rarity(itemType.getRarity())
+            .specialItemType(itemType.getSpecialItemType())
+            .marketHashName(itemType.getMarketHashName())
+            .build();
 
-        // Save the new ItemType if it doesn't exist
-        return itemTypeRepository.save(
-            ItemType.builder()
-                .itemName(storedName)
-                .category(storedCategory)
-                .itemSet(storedSet)
-                .exterior(itemType.getExterior())
-                .rarity(itemType.getRarity())
-                .specialItemType(itemType.getSpecialItemType())
-                .marketHashName(itemType.getMarketHashName())
-                .build()
-        );
+        // Check if the ItemType already exists to prevent duplicates
+        ItemSet set = storedSet;
+        ItemCategory category = storedCategory;
+        ItemName name = storedName;
+        return canonical(itemTypes, ItemTypeKey.of(type),
+            () -> itemTypeRepository.findByEquality(
+                set,
+                category,
+                name,
+                type.getExterior(),
+                type.getRarity(),
+                type.getSpecialItemType(),
+                type.getMarketHashName()
+            ),
+            () -> itemTypeRepository.save(type));
     }
 
     /**
@@ -163,8 +239,8 @@ public class Mapper {
             return mappedStickers;
         }
         for (Sticker sticker : stickers) {
-            Sticker storedSticker = stickerRepository.getByEquality(sticker.getName(), sticker.getStickerType());
-            mappedStickers.add(Objects.requireNonNullElseGet(storedSticker,
+            mappedStickers.add(canonical(this.stickers, new StickerKey(sticker.getName(), sticker.getStickerType()),
+                () -> stickerRepository.getByEquality(sticker.getName(), sticker.getStickerType()),
                 () -> stickerRepository.save(
                     Sticker.builder()
                         .name(sticker.getName())
@@ -186,13 +262,70 @@ public class Mapper {
         if (charm == null) {
             return null;
         }
-        // Attempt to find an existing charm in the database by name
-        Charm storedCharm = charmRepository.findByName(charm.getName());
-        // Save the new charm to the database if it doesn't exist
-        return Objects.requireNonNullElseGet(storedCharm, () -> charmRepository.save(
-            Charm.builder()
-                .name(charm.getName())
-                .build()
-        ));
+        return canonical(charms, charm.getName(),
+            () -> charmRepository.findByName(charm.getName()),
+            () -> charmRepository.save(
+                Charm.builder()
+                    .name(charm.getName())
+                    .build()
+            ));
+    }
+
+    /**
+     * Returns the stored entity for a natural key. Only if the entity is not cached yet, the database is queried for
+     * it, and only if it isn't stored yet either, it is saved. Threads storing the same entity wait for each other.
+     * If an entity with a unique constraint is stored by someone else in the meantime anyway, the violation is resolved
+     * by fetching the stored entity.
+     *
+     * @param dictionary The stored entities of this type.
+     * @param key        The natural key of the entity.
+     * @param find       Finds the stored entity in the database, returns null if it isn't stored.
+     * @param insert     Saves the entity and returns the stored entity.
+     * @return The stored entity.
+     */
+    private <K, V> V canonical(Dictionary<K, V> dictionary, K key, Supplier<V> find, Supplier<V> insert) {
+        V stored = dictionary.entries.get(key);
+        if (stored != null) {
+            hits.incrementAndGet();
+            return stored;
+        }
+
+        misses.incrementAndGet();
+        Object lock = dictionary.locks.computeIfAbsent(key, k -> new Object());
+        try {
+            synchronized (lock) {
+                // another thread may have stored the entity while this one was waiting for the lock
+                stored = dictionary.entries.get(key);
+                if (stored != null) {
+                    return stored;
+                }
+
+                stored = find.get();
+                if (stored == null) {
+                    try {
+                        stored = insert.get();
+                    } catch (DataIntegrityViolationException e) {
+                        stored = find.get();
+                        if (stored == null) {
+                            throw e;
+                        }
+                    }
+                }
+                dictionary.entries.put(key, stored);
+                return stored;
+            }
+        } finally {
+            dictionary.locks.remove(key, lock);
+        }
+    }
+
+    /**
+     * Summarizes the cached entities and the hit rate of the cache.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d item types, %d names, %d stickers cached, %d hits, %d misses",
+            itemTypes.size(), itemNames.size(), stickers.size(), hits.get(), misses.get());
     }
 }
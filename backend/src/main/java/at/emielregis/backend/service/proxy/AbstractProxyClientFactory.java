@@ -0,0 +1,91 @@
+package at.emielregis.backend.service.proxy;
+
+import at.emielregis.backend.service.StatisticsService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+
+/**
+ * Base class of the {@link ProxyClientFactory} implementations.
+ * Routes the non-blocking requests of all proxies through a single {@link SharedHttpClient}, subclasses only provide the
+ * request factory of the blocking client of a proxy. The blocking clients are built with the application's
+ * {@link RestTemplateBuilder}, so they read responses with the application's ObjectMapper.
+ */
+public abstract class AbstractProxyClientFactory implements ProxyClientFactory {
+
+    @Value("${user-properties.http-connect-timeout-millis}")
+    protected int CONNECT_TIMEOUT_MILLIS;
+
+    @Value("${user-properties.http-read-timeout-millis}")
+    protected int READ_TIMEOUT_MILLIS;
+
+    @Value("${user-properties.max-requests-in-flight-per-proxy}")
+    protected int MAX_REQUESTS_IN_FLIGHT_PER_PROXY;
+
+    @Value("${user-properties.http-async-threads}")
+    private int ASYNC_THREADS;
+
+    protected final StatisticsService statisticsService; // Also receives the statistics of the subclasses
+    private final RestTemplateBuilder restTemplateBuilder;
+    private final ProxyHealthTracker proxyHealthTracker;
+    private SharedHttpClient sharedHttpClient;
+
+    /**
+     * Constructs the factory.
+     *
+     * @param restTemplateBuilder The builder of the blocking clients.
+     * @param statisticsService   Service the statistics of the shared non-blocking client and of the subclasses are
+     *                            reported to.
+     * @param proxyHealthTracker  Tracks the health of the proxies of the created clients.
+     */
+    protected AbstractProxyClientFactory(RestTemplateBuilder restTemplateBuilder, StatisticsService statisticsService, ProxyHealthTracker proxyHealthTracker) {
+        this.restTemplateBuilder = restTemplateBuilder;
+        this.statisticsService = statisticsService;
+        this.proxyHealthTracker = proxyHealthTracker;
+    }
+
+    /**
+     * Creates the non-blocking client shared by all proxies once the properties are set.
+     */
+    @PostConstruct
+    private void initSharedHttpClient() {
+        sharedHttpClient = new SharedHttpClient(ASYNC_THREADS, Duration.ofMillis(CONNECT_TIMEOUT_MILLIS));
+        statisticsService.register("proxy async client", sharedHttpClient::getStatistics);
+    }
+
+    /**
+     * Stops the threads of the shared non-blocking client.
+     */
+    @PreDestroy
+    private void closeSharedHttpClient() {
+        sharedHttpClient.close();
+    }
+
+    @Override
+    public ProxyClient create(String host, int port) {
+        return new ProxyClient(
+            host + ":" + port,
+            restTemplateBuilder.requestFactory(() -> createRequestFactory(host, port)).build(),
+            sharedHttpClient,
+            new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port)),
+            Duration.ofMillis(READ_TIMEOUT_MILLIS),
+            MAX_REQUESTS_IN_FLIGHT_PER_PROXY,
+            proxyHealthTracker
+        );
+    }
+
+    /**
+     * Creates the request factory of the blocking client, which sends all requests through the given proxy.
+     *
+     * @param host The host of the proxy.
+     * @param port The port of the proxy.
+     * @return The request factory for the proxy.
+     */
+    protected abstract ClientHttpRequestFactory createRequestFactory(String host, int port);
+}
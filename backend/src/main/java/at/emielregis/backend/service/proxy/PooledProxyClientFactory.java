@@ -0,0 +1,138 @@
+package at.emielregis.backend.service.proxy;
+
+import at.emielregis.backend.service.StatisticsService;
+import org.apache.http.HttpHost;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ProxyClientFactory} whose blocking clients are based on the Apache HttpClient.
+ * Every proxy gets its own pool of persistent connections, so the TCP connection and the TLS session tunneled
+ * through the proxy are reused across requests instead of being established again for every inventory or group page.
+ * All requests are bounded by connect, read and pool timeouts, so a hung proxy can't stall a worker forever.
+ */
+@Component
+@ConditionalOnProperty(name = "user-properties.http-client", havingValue = "pooled", matchIfMissing = true)
+public class PooledProxyClientFactory extends AbstractProxyClientFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    private static final int IDLE_CONNECTION_SECONDS = 30;
+
+    @Value("${user-properties.http-max-connections-per-proxy}")
+    private int MAX_CONNECTIONS_PER_PROXY;
+
+    private final List<PoolingHttpClientConnectionManager> connectionManagers = new CopyOnWriteArrayList<>();
+    private final List<CloseableHttpClient> clients = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService evictor;
+
+    /**
+     * Constructs the factory.
+     *
+     * @param restTemplateBuilder The builder of the blocking clients.
+     * @param statisticsService   Service the pool statistics are reported to.
+     * @param proxyHealthTracker  Tracks the health of the proxies of the created clients.
+     */
+    public PooledProxyClientFactory(RestTemplateBuilder restTemplateBuilder, StatisticsService statisticsService, ProxyHealthTracker proxyHealthTracker) {
+        super(restTemplateBuilder, statisticsService, proxyHealthTracker);
+    }
+
+    /**
+     * Starts a single background task closing expired and idle connections of all pools,
+     * instead of one eviction thread per client.
+     */
+    @PostConstruct
+    private void init() {
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "proxy-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleAtFixedRate(() -> connectionManagers.forEach(manager -> {
+            manager.closeExpiredConnections();
+            manager.closeIdleConnections(IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+        }), IDLE_CONNECTION_SECONDS, IDLE_CONNECTION_SECONDS, TimeUnit.SECONDS);
+
+        statisticsService.register("proxy connection pools", this::getPoolStatistics);
+    }
+
+    /**
+     * Stops the eviction task and closes all pooled connections.
+     */
+    @PreDestroy
+    private void destroy() {
+        evictor.shutdownNow();
+        for (CloseableHttpClient client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                LOGGER.error("Could not close HTTP client: {}", e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    protected ClientHttpRequestFactory createRequestFactory(String host, int port) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS_PER_PROXY);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_PROXY);
+        // connections that were idle for a while might have been closed by the proxy in the meantime
+        connectionManager.setValidateAfterInactivity(IDLE_CONNECTION_SECONDS * 1000 / 2);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout(CONNECT_TIMEOUT_MILLIS)
+            .setSocketTimeout(READ_TIMEOUT_MILLIS)
+            .setConnectionRequestTimeout(READ_TIMEOUT_MILLIS)
+            .build();
+
+        CloseableHttpClient client = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setProxy(new HttpHost(host, port))
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+
+        connectionManagers.add(connectionManager);
+        clients.add(client);
+
+        return new HttpComponentsClientHttpRequestFactory(client);
+    }
+
+    @Override
+    public String getPoolStatistics() {
+        int leased = 0;
+        int pending = 0;
+        int available = 0;
+        int max = 0;
+
+        for (PoolingHttpClientConnectionManager manager : connectionManagers) {
+            PoolStats stats = manager.getTotalStats();
+            leased += stats.getLeased();
+            pending += stats.getPending();
+            available += stats.getAvailable();
+            max += stats.getMax();
+        }
+
+        return String.format("%d pools, %d leased, %d idle (reusable), %d pending, %d max connections",
+            connectionManagers.size(), leased, available, pending, max);
+    }
+}
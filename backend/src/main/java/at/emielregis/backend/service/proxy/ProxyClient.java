@@ -0,0 +1,142 @@
+package at.emielregis.backend.service.proxy;
+
+import lombok.Getter;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The HTTP clients of a single proxy.
+ * Blocking requests are sent with the {@link RestTemplate}, non-blocking requests with the {@link SharedHttpClient}
+ * of all proxies, routed through this proxy. The amount of concurrent requests is bounded by the in-flight permits
+ * of the proxy.
+ * The outcome and latency of every request sent with either client is reported to the {@link ProxyHealthTracker}.
+ */
+public class ProxyClient {
+
+    /**
+     * Identifies the proxy in `host:port` format.
+     */
+    @Getter
+    private final String key;
+
+    @Getter
+    private final RestTemplate restTemplate;
+
+    private final SharedHttpClient httpClient;
+    private final Proxy proxy;
+    private final Duration requestTimeout;
+    private final Semaphore inFlight;
+    private final ProxyHealthTracker healthTracker;
+
+    /**
+     * Constructs the clients of a proxy.
+     *
+     * @param key                   Identifies the proxy in `host:port` format.
+     * @param restTemplate          The template for blocking requests through the proxy.
+     * @param httpClient            The client for non-blocking requests, shared by all proxies.
+     * @param proxy                 The proxy the non-blocking requests are sent through.
+     * @param requestTimeout        The timeout of a single non-blocking request.
+     * @param maxRequestsInFlight   The maximum amount of concurrent non-blocking requests.
+     * @param healthTracker         Tracks the health of the proxy.
+     */
+    public ProxyClient(String key, RestTemplate restTemplate, SharedHttpClient httpClient, Proxy proxy, Duration requestTimeout, int maxRequestsInFlight, ProxyHealthTracker healthTracker) {
+        this.key = key;
+        this.restTemplate = restTemplate;
+        this.httpClient = httpClient;
+        this.proxy = proxy;
+        this.requestTimeout = requestTimeout;
+        this.inFlight = new Semaphore(maxRequestsInFlight);
+        this.healthTracker = healthTracker;
+
+        restTemplate.getInterceptors().add((request, body, execution) -> {
+            long start = System.nanoTime();
+            try {
+                ClientHttpResponse response = execution.execute(request, body);
+                healthTracker.record(key, response.getRawStatusCode(), null, System.nanoTime() - start);
+                return response;
+            } catch (IOException | RuntimeException e) {
+                healthTracker.record(key, 0, e, System.nanoTime() - start);
+                throw e;
+            }
+        });
+    }
+
+    /**
+     * Sends a non-blocking GET request through the proxy.
+     * The caller must hold an in-flight permit, see {@link #tryAcquire()}.
+     *
+     * The request timeout only covers the time until the headers arrive, so the body is closed once the timeout has
+     * passed again. Reading a stalled body then fails instead of blocking the reading thread forever.
+     *
+     * @param uri The requested URI.
+     * @return A future completing with the response once its headers have arrived. The caller must read the body on
+     * a thread that may block and close it.
+     */
+    public CompletableFuture<HttpResponse<InputStream>> getAsync(String uri) {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(uri))
+            .timeout(requestTimeout)
+            .GET()
+            .build();
+        long start = System.nanoTime();
+        return httpClient.sendAsync(request, proxy)
+            .whenComplete((response, ex) -> {
+                healthTracker.record(key, response == null ? 0 : response.statusCode(), ex, System.nanoTime() - start);
+                if (response != null) {
+                    CompletableFuture.delayedExecutor(requestTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                        .execute(() -> closeQuietly(response.body()));
+                }
+            });
+    }
+
+    /**
+     * Takes an in-flight permit if one is free.
+     *
+     * @return True if a permit was taken, false if all permits are taken.
+     */
+    public boolean tryAcquire() {
+        return inFlight.tryAcquire();
+    }
+
+    /**
+     * Checks whether an in-flight permit is free.
+     *
+     * @return True if {@link #tryAcquire()} would currently succeed.
+     */
+    public boolean hasFreeSlot() {
+        return inFlight.availablePermits() > 0;
+    }
+
+    /**
+     * Releases an in-flight permit taken with {@link #tryAcquire()}.
+     */
+    public void release() {
+        inFlight.release();
+    }
+
+    /**
+     * Closes the body of a response, which is a no-op if it was already closed.
+     */
+    private static void closeQuietly(InputStream body) {
+        try {
+            body.close();
+        } catch (IOException ignored) {
+            // Nothing left to release
+        }
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+}
@@ -0,0 +1,24 @@
+package at.emielregis.backend.service.proxy;
+
+/**
+ * Creates the HTTP clients used to send requests through a single proxy.
+ * The implementation is selected with the `user-properties.http-client` property.
+ */
+public interface ProxyClientFactory {
+
+    /**
+     * Creates the clients that send all requests through the given proxy.
+     *
+     * @param host The host of the proxy.
+     * @param port The port of the proxy.
+     * @return The clients for the proxy.
+     */
+    ProxyClient create(String host, int port);
+
+    /**
+     * Describes the current state of the connections of all created clients.
+     *
+     * @return A human-readable summary of the connection pools.
+     */
+    String getPoolStatistics();
+}
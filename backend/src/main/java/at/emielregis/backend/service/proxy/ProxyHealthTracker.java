@@ -0,0 +1,277 @@
+package at.emielregis.backend.service.proxy;
+
+import at.emielregis.backend.service.StatisticsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.InterruptedIOException;
+import java.lang.invoke.MethodHandles;
+import java.net.http.HttpTimeoutException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Tracks the health of each proxy from the outcomes of its requests.
+ * For every proxy a rolling window of the last `proxy-health-window` requests is kept, from which the success rate and
+ * the p50/p99 latencies are computed, together with the total amount of 429, 401, timeout and other failures.
+ * <p>
+ * Dead or permanently throttled proxies are quarantined and automatically released again after the quarantine.
+ * A released proxy is on probation: its next failure quarantines it again for twice as long, its next success clears
+ * the probation. Traffic is weighted towards fast and reliable proxies with {@link #weight(String)}.
+ */
+@Component
+public class ProxyHealthTracker {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+
+    /**
+     * The outcome of a single request.
+     */
+    public enum Outcome {
+        SUCCESS,
+        THROTTLED,
+        UNAUTHORIZED,
+        TIMEOUT,
+        ERROR
+    }
+
+    private static final long UNKNOWN_LATENCY_MILLIS = 1000;
+    private static final long MIN_LATENCY_MILLIS = 50;
+    private static final int MAX_QUARANTINE_DOUBLINGS = 6;
+
+    @Value("${user-properties.proxy-health-window}")
+    private int WINDOW;
+
+    @Value("${user-properties.proxy-health-min-success-rate}")
+    private double MIN_SUCCESS_RATE;
+
+    @Value("${user-properties.proxy-health-max-consecutive-failures}")
+    private int MAX_CONSECUTIVE_FAILURES;
+
+    @Value("${user-properties.proxy-quarantine-seconds}")
+    private long QUARANTINE_SECONDS;
+
+    private final StatisticsService statisticsService;
+    private final Map<String, ProxyHealth> healths = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the tracker.
+     *
+     * @param statisticsService Service the health statistics are reported to.
+     */
+    public ProxyHealthTracker(StatisticsService statisticsService) {
+        this.statisticsService = statisticsService;
+    }
+
+    @PostConstruct
+    private void init() {
+        statisticsService.register("proxy health", this::getStatistics);
+    }
+
+    /**
+     * Records the outcome of a request sent through a proxy. Outcomes arriving while the proxy is quarantined, i.e. of
+     * requests that were still in flight when it was quarantined, only count towards the statistics.
+     *
+     * @param key          The key of the proxy.
+     * @param statusCode   The HTTP status of the response, ignored if the request failed with an error.
+     * @param error        The error the request failed with, or null if a response was received.
+     * @param latencyNanos The time between sending the request and receiving the response or error.
+     */
+    public void record(String key, int statusCode, Throwable error, long latencyNanos) {
+        Outcome outcome = classify(statusCode, error);
+        health(key).record(outcome, TimeUnit.NANOSECONDS.toMillis(latencyNanos), System.nanoTime());
+    }
+
+    /**
+     * Checks whether a proxy may be used, which is the case unless it is quarantined.
+     *
+     * @param key The key of the proxy.
+     * @return True if the proxy is not quarantined.
+     */
+    public boolean isAvailable(String key) {
+        return health(key).isAvailable(System.nanoTime());
+    }
+
+    /**
+     * Returns the point in time at which a quarantined proxy is released again.
+     *
+     * @param key The key of the proxy.
+     * @return The {@link System#nanoTime()} at which the quarantine ends, or a value in the past if it isn't quarantined.
+     */
+    public long availableAt(String key) {
+        return health(key).availableAt();
+    }
+
+    /**
+     * Returns the relative share of traffic a proxy should receive: its success rate divided by its median latency.
+     *
+     * @param key The key of the proxy.
+     * @return The weight of the proxy, proxies without samples get the weight of a reliable but slow proxy.
+     */
+    public double weight(String key) {
+        return health(key).weight();
+    }
+
+    /**
+     * Describes the health of all proxies, including the least healthy ones.
+     *
+     * @return A human-readable summary.
+     */
+    public String getStatistics() {
+        long now = System.nanoTime();
+        long quarantined = healths.values().stream().filter(health -> health.isQuarantined(now)).count();
+        String worst = healths.entrySet().stream()
+            .sorted(Comparator.comparingDouble(entry -> entry.getValue().weight()))
+            .limit(5)
+            .map(entry -> entry.getKey() + " [" + entry.getValue() + "]")
+            .collect(Collectors.joining(", "));
+        return String.format("%d proxies, %d quarantined, least healthy: %s", healths.size(), quarantined, worst);
+    }
+
+    private ProxyHealth health(String key) {
+        return healths.computeIfAbsent(key, k -> new ProxyHealth(k, WINDOW));
+    }
+
+    private static Outcome classify(int statusCode, Throwable error) {
+        while (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error != null) {
+            return error instanceof HttpTimeoutException || error instanceof InterruptedIOException
+                ? Outcome.TIMEOUT
+                : Outcome.ERROR;
+        }
+        if (statusCode == 429) {
+            return Outcome.THROTTLED;
+        }
+        if (statusCode == 401) {
+            return Outcome.UNAUTHORIZED;
+        }
+        // 403 is a private inventory - the proxy itself works fine
+        return statusCode < 400 || statusCode == 403 ? Outcome.SUCCESS : Outcome.ERROR;
+    }
+
+    /**
+     * The rolling health window of a single proxy.
+     */
+    private class ProxyHealth {
+        private final String key;
+        private final boolean[] successes;
+        private final long[] latencies;
+        private final long[] counts = new long[Outcome.values().length];
+        private int samples;
+        private int next;
+        private int windowSuccesses;
+        private int consecutiveFailures;
+        private long p50 = UNKNOWN_LATENCY_MILLIS;
+        private long p99 = UNKNOWN_LATENCY_MILLIS;
+        private long quarantinedUntil;
+        private int quarantines;
+        private boolean probation;
+
+        ProxyHealth(String key, int window) {
+            this.key = key;
+            this.successes = new boolean[window];
+            this.latencies = new long[window];
+            this.quarantinedUntil = System.nanoTime();
+        }
+
+        synchronized void record(Outcome outcome, long latencyMillis, long now) {
+            boolean success = outcome == Outcome.SUCCESS;
+            ++counts[outcome.ordinal()];
+
+            if (isQuarantined(now)) {
+                // a request sent before the quarantine, its result must neither extend the quarantine nor escalate the
+                // next one, and the window is reset for the probation anyway
+                return;
+            }
+
+            if (samples == successes.length && successes[next]) {
+                --windowSuccesses;
+            }
+            successes[next] = success;
+            latencies[next] = latencyMillis;
+            next = (next + 1) % successes.length;
+            samples = Math.min(samples + 1, successes.length);
+            if (success) {
+                ++windowSuccesses;
+            }
+            updateLatencies();
+
+            if (success) {
+                consecutiveFailures = 0;
+                if (probation) {
+                    probation = false;
+                    quarantines = 0;
+                }
+                return;
+            }
+
+            ++consecutiveFailures;
+            if (probation || consecutiveFailures >= MAX_CONSECUTIVE_FAILURES
+                || (samples >= successes.length / 2 && successRate() < MIN_SUCCESS_RATE)) {
+                quarantine(now);
+            }
+        }
+
+        synchronized boolean isAvailable(long now) {
+            if (isQuarantined(now)) {
+                return false;
+            }
+            if (quarantines > 0 && !probation && consecutiveFailures > 0) {
+                // the quarantine just ended, the next request probes the proxy with a fresh window
+                probation = true;
+                consecutiveFailures = 0;
+                samples = 0;
+                next = 0;
+                windowSuccesses = 0;
+            }
+            return true;
+        }
+
+        synchronized boolean isQuarantined(long now) {
+            return now - quarantinedUntil < 0;
+        }
+
+        synchronized long availableAt() {
+            return quarantinedUntil;
+        }
+
+        synchronized double weight() {
+            return successRate() / Math.max(p50, MIN_LATENCY_MILLIS);
+        }
+
+        private void quarantine(long now) {
+            long seconds = QUARANTINE_SECONDS << Math.min(quarantines++, MAX_QUARANTINE_DOUBLINGS);
+            quarantinedUntil = now + TimeUnit.SECONDS.toNanos(seconds);
+            probation = false;
+            LOGGER.info("Quarantining proxy {} for {} seconds: {}", key, seconds, this);
+        }
+
+        private double successRate() {
+            return samples == 0 ? 1.0 : (double) windowSuccesses / samples;
+        }
+
+        private void updateLatencies() {
+            long[] sorted = Arrays.copyOf(latencies, samples);
+            Arrays.sort(sorted);
+            p50 = sorted[(sorted.length - 1) / 2];
+            p99 = sorted[(int) Math.ceil(0.99 * sorted.length) - 1];
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("success rate %.2f, p50 %dms, p99 %dms, %d ok, %d 429, %d 401, %d timeouts, %d errors",
+                successRate(), p50, p99,
+                counts[Outcome.SUCCESS.ordinal()], counts[Outcome.THROTTLED.ordinal()],
+                counts[Outcome.UNAUTHORIZED.ordinal()], counts[Outcome.TIMEOUT.ordinal()], counts[Outcome.ERROR.ordinal()]);
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package at.emielregis.backend.service.proxy;
+
+import at.emielregis.backend.service.StatisticsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.invoke.MethodHandles;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limits the requests sent through each proxy.
+ * Every proxy has its own token bucket, so a proxy can't send more than `proxy-requests-per-minute` requests on average.
+ * If Steam throttles a proxy (429) or rejects it (401), only this proxy is backed off - exponentially with jitter for
+ * consecutive failures - while all other proxies stay available. The limiter never blocks, callers ask which proxy is
+ * ready or when a proxy will be ready again and decide themselves what to do in the meantime.
+ */
+@Component
+public class ProxyRateLimiter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
+    private static final long MIN_ACQUIRE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10); // Retry if a token was taken meanwhile
+
+    @Value("${user-properties.proxy-requests-per-minute}")
+    private double REQUESTS_PER_MINUTE;
+
+    @Value("${user-properties.proxy-burst-size}")
+    private int BURST_SIZE;
+
+    @Value("${user-properties.proxy-backoff-base-seconds}")
+    private long BACKOFF_BASE_SECONDS;
+
+    @Value("${user-properties.proxy-backoff-max-seconds}")
+    private long BACKOFF_MAX_SECONDS;
+
+    private final StatisticsService statisticsService;
+    private final Map<String, ProxyRateState> states = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs the rate limiter.
+     *
+     * @param statisticsService Service the rate limit statistics are reported to.
+     */
+    public ProxyRateLimiter(StatisticsService statisticsService) {
+        this.statisticsService = statisticsService;
+    }
+
+    @PostConstruct
+    private void init() {
+        statisticsService.register("proxy rate limits", this::getStatistics);
+    }
+
+    /**
+     * Takes a token of the proxy if it is ready to send a request.
+     *
+     * @param key The key of the proxy.
+     * @return True if the proxy may send a request now, false if it is backed off or out of tokens.
+     */
+    public boolean tryAcquire(String key) {
+        return state(key).tryAcquire(System.nanoTime());
+    }
+
+    /**
+     * Takes a token of the proxy as soon as it is ready to send a request, without blocking the calling thread.
+     * Used for requests that have to be sent with a specific proxy, like the further pages of an inventory.
+     *
+     * @param key The key of the proxy.
+     * @return A future completing once a token of the proxy has been taken.
+     */
+    public CompletableFuture<Void> acquire(String key) {
+        CompletableFuture<Void> acquired = new CompletableFuture<>();
+        acquire(key, acquired);
+        return acquired;
+    }
+
+    private void acquire(String key, CompletableFuture<Void> acquired) {
+        long readyIn = nextAvailableAt(key) - System.nanoTime();
+        if (readyIn <= 0 && tryAcquire(key)) {
+            acquired.complete(null);
+            return;
+        }
+        CompletableFuture.delayedExecutor(Math.max(readyIn, MIN_ACQUIRE_WAIT_NANOS), TimeUnit.NANOSECONDS)
+            .execute(() -> acquire(key, acquired));
+    }
+
+    /**
+     * Returns the point in time at which the proxy will be ready to send its next request.
+     *
+     * @param key The key of the proxy.
+     * @return The {@link System#nanoTime()} at which {@link #tryAcquire(String)} will succeed, or a value in the past
+     * if it succeeds now.
+     */
+    public long nextAvailableAt(String key) {
+        return state(key).nextAvailableAt(System.nanoTime());
+    }
+
+    /**
+     * Records a successful request, which resets the backoff of the proxy.
+     *
+     * @param key The key of the proxy.
+     */
+    public void onSuccess(String key) {
+        state(key).onSuccess();
+    }
+
+    /**
+     * Records that the proxy got throttled or rejected and backs it off.
+     *
+     * @param key The key of the proxy.
+     */
+    public void onThrottled(String key) {
+        long backoffNanos = state(key).onThrottled(System.nanoTime());
+        LOGGER.info("Proxy {} throttled, backing off for {} seconds.", key, TimeUnit.NANOSECONDS.toSeconds(backoffNanos));
+    }
+
+    /**
+     * Describes the current state of all proxies.
+     *
+     * @return A human-readable summary.
+     */
+    public String getStatistics() {
+        long now = System.nanoTime();
+        long backedOff = states.values().stream().filter(state -> state.isBackedOff(now)).count();
+        return String.format("%d proxies, %d backed off", states.size(), backedOff);
+    }
+
+    private ProxyRateState state(String key) {
+        return states.computeIfAbsent(key, k -> new ProxyRateState(System.nanoTime()));
+    }
+
+    /**
+     * The token bucket and backoff state of a single proxy.
+     */
+    private class ProxyRateState {
+        private double tokens;
+        private long lastRefill;
+        private long blockedUntil;
+        private int consecutiveFailures;
+
+        ProxyRateState(long now) {
+            this.tokens = BURST_SIZE;
+            this.lastRefill = now;
+            this.blockedUntil = now;
+        }
+
+        synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (now - blockedUntil < 0 || tokens < 1) {
+                return false;
+            }
+            --tokens;
+            return true;
+        }
+
+        synchronized long nextAvailableAt(long now) {
+            refill(now);
+            long refilledAt = tokens >= 1 ? now : now + (long) ((1 - tokens) * nanosPerToken());
+            return refilledAt - blockedUntil > 0 ? refilledAt : blockedUntil;
+        }
+
+        synchronized void onSuccess() {
+            consecutiveFailures = 0;
+        }
+
+        synchronized long onThrottled(long now) {
+            long exponential = BACKOFF_BASE_SECONDS << Math.min(consecutiveFailures++, 20);
+            long capped = TimeUnit.SECONDS.toNanos(Math.min(exponential, BACKOFF_MAX_SECONDS));
+            // equal jitter: wait at least half of the backoff, so throttled proxies don't retry in lockstep
+            long backoff = capped / 2 + ThreadLocalRandom.current().nextLong(capped / 2 + 1);
+            blockedUntil = now + backoff;
+            // a single token is left for probing the proxy once the backoff is over
+            tokens = 1;
+            lastRefill = blockedUntil;
+            return backoff;
+        }
+
+        synchronized boolean isBackedOff(long now) {
+            return now - blockedUntil < 0;
+        }
+
+        private void refill(long now) {
+            if (now - lastRefill <= 0) {
+                return;
+            }
+            tokens = Math.min(BURST_SIZE, tokens + (now - lastRefill) / nanosPerToken());
+            lastRefill = now;
+        }
+
+        private double nanosPerToken() {
+            return TimeUnit.MINUTES.toNanos(1) / REQUESTS_PER_MINUTE;
+        }
+    }
+}
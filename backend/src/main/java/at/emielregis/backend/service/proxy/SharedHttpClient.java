@@ -0,0 +1,122 @@
+package at.emielregis.backend.service.proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The non-blocking {@link HttpClient} shared by the clients of all proxies, so all non-blocking requests are served by
+ * a single selector thread and a fixed amount of threads instead of a selector thread and a thread pool per proxy.
+ * <p>
+ * Each request is routed through the proxy it is sent with by the {@link ProxySelector} of the client. The client asks
+ * its selector for the proxy of a request once, in the thread calling {@link HttpClient#sendAsync}, and keeps the proxy
+ * for retries and redirects, so the proxy only has to be known to the selector during that call. Connections are
+ * pooled by the client per target and proxy, so connections through different proxies are never mixed up.
+ */
+public class SharedHttpClient {
+
+    private final ThreadLocal<Proxy> route = new ThreadLocal<>(); // The proxy of the request being sent by the thread
+    private final ThreadPoolExecutor executor;
+    private final HttpClient httpClient;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates the client and its threads.
+     *
+     * @param threads        The amount of threads handling the responses.
+     * @param connectTimeout The timeout for establishing a connection to a proxy.
+     */
+    public SharedHttpClient(int threads, Duration connectTimeout) {
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "proxy-http-client-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        httpClient = HttpClient.newBuilder()
+            .proxy(new RoutingProxySelector())
+            .executor(executor)
+            .connectTimeout(connectTimeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+    }
+
+    /**
+     * Sends a request through the given proxy without blocking.
+     * The body is not buffered but streamed, so it can be parsed while it arrives. A request counts as completed once
+     * its headers have arrived.
+     *
+     * @param request The request.
+     * @param proxy   The proxy to send the request through.
+     * @return A future completing with the response once its headers have arrived. The caller must close the body.
+     */
+    public CompletableFuture<HttpResponse<InputStream>> sendAsync(HttpRequest request, Proxy proxy) {
+        CompletableFuture<HttpResponse<InputStream>> response;
+        route.set(proxy);
+        try {
+            response = httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        } finally {
+            route.remove();
+        }
+
+        inFlight.incrementAndGet();
+        return response.whenComplete((r, ex) -> {
+            inFlight.decrementAndGet();
+            (ex == null ? completed : failed).incrementAndGet();
+        });
+    }
+
+    /**
+     * Describes the requests and threads of the client.
+     *
+     * @return A single line summary.
+     */
+    public String getStatistics() {
+        return String.format("%d requests in flight, %d completed, %d failed, %d of %d threads active, %d tasks queued",
+            inFlight.get(), completed.get(), failed.get(), executor.getActiveCount(), executor.getMaximumPoolSize(),
+            executor.getQueue().size());
+    }
+
+    /**
+     * Stops the threads of the client once the queued responses are handled, without interrupting them.
+     */
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the proxy of the request the calling thread is sending.
+     */
+    private class RoutingProxySelector extends ProxySelector {
+        @Override
+        public List<Proxy> select(URI uri) {
+            Proxy proxy = route.get();
+            if (proxy == null) {
+                // Never send a request without a proxy
+                throw new IllegalStateException("No proxy selected for the request to " + uri);
+            }
+            return List.of(proxy);
+        }
+
+        @Override
+        public void connectFailed(URI uri, SocketAddress address, IOException e) {
+            // Failed requests are recorded by the ProxyHealthTracker of the ProxyClient
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package at.emielregis.backend.service.proxy;
+
+import at.emielregis.backend.service.StatisticsService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+/**
+ * {@link ProxyClientFactory} whose blocking clients are based on {@link java.net.HttpURLConnection}.
+ * Connection reuse is left to the JDK, so no pool statistics are available.
+ */
+@Component
+@ConditionalOnProperty(name = "user-properties.http-client", havingValue = "simple")
+public class SimpleProxyClientFactory extends AbstractProxyClientFactory {
+
+    /**
+     * Constructs the factory.
+     *
+     * @param restTemplateBuilder The builder of the blocking clients.
+     * @param statisticsService   Service the statistics of the shared non-blocking client are reported to.
+     * @param proxyHealthTracker  Tracks the health of the proxies of the created clients.
+     */
+    public SimpleProxyClientFactory(RestTemplateBuilder restTemplateBuilder, StatisticsService statisticsService, ProxyHealthTracker proxyHealthTracker) {
+        super(restTemplateBuilder, statisticsService, proxyHealthTracker);
+    }
+
+    @Override
+    protected ClientHttpRequestFactory createRequestFactory(String host, int port) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setProxy(new Proxy(Proxy.Type.HTTP, new InetSocketAddress(host, port)));
+        requestFactory.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        requestFactory.setReadTimeout(READ_TIMEOUT_MILLIS);
+        return requestFactory;
+    }
+
+    @Override
+    public String getPoolStatistics() {
+        return "not pooled";
+    }
+}
@@ -0,0 +1,56 @@
+package at.emielregis.backend;
+
+/**
+ * The harness shared by the benchmarks of the project. Benchmarks are classes named `*Benchmark` with a main method, so
+ * they are compiled with the tests but never run by the build. Run one with
+ * <pre>
+ * mvn test-compile dependency:build-classpath -Dmdep.outputFile=cp.txt
+ * java -cp target/test-classes:target/classes:$(cat cp.txt) [benchmark class] [arguments]
+ * </pre>
+ * The arguments of each benchmark are listed in its documentation, all of them are optional.
+ */
+public final class Benchmarks {
+
+    /**
+     * A single measurement of a benchmark, repeated for the warmup.
+     */
+    @FunctionalInterface
+    public interface Round {
+        /**
+         * Runs the measurement.
+         *
+         * @param report True if the results should be printed, false if this round only warms up.
+         * @throws Exception If the measurement fails, which ends the benchmark.
+         */
+        void run(boolean report) throws Exception;
+    }
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Runs a measurement after the given amount of warmup rounds. Short runs end before the compiler has optimized the
+     * measured code, so only the round after the warmup is reported.
+     *
+     * @param warmupRounds The amount of unreported rounds.
+     * @param round        The measurement.
+     * @throws Exception If the measurement fails.
+     */
+    public static void measure(int warmupRounds, Round round) throws Exception {
+        for (int i = 0; i <= warmupRounds; i++) {
+            round.run(i == warmupRounds);
+        }
+    }
+
+    /**
+     * Reads an optional numeric argument.
+     *
+     * @param args         The arguments of the benchmark.
+     * @param index        The position of the argument.
+     * @param defaultValue The value if the argument is missing.
+     * @return The value of the argument.
+     */
+    public static int intArgument(String[] args, int index, int defaultValue) {
+        return args.length > index ? Integer.parseInt(args[index]) : defaultValue;
+    }
+}
@@ -0,0 +1,167 @@
+package at.emielregis.backend.data.responses;
+
+import at.emielregis.backend.Benchmarks;
+import at.emielregis.backend.service.ItemDescriptionCache;
+import at.emielregis.backend.service.StatisticsService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the throughput and the allocations of parsing a full inventory page of 2500 items with the streaming
+ * {@link HttpInventoryResponseDeserializer}, with and without an {@link ItemDescriptionCache}, and of binding the same
+ * page to generic maps, which is what responses were parsed into before the streaming deserializer. The generic maps
+ * are not turned into items, so they only show a lower bound of the previous parsing.
+ * Pages are parsed from an {@link InputStream} like the responses of the inventory endpoint are.
+ * <p>
+ * Without arguments the page is generated in the format of the Steam inventory endpoint, with most weapons carrying
+ * four stickers. Pages captured from the endpoint are measured instead if their files are given, since a synthetic page
+ * can't show how often descriptions repeat across real inventories.
+ * <p>
+ * Arguments: [iterations] [captured page files], run it as described in {@link Benchmarks}.
+ */
+public class InventoryParsingBenchmark {
+    private static final int ITEMS = 2500;
+    private static final int DISTINCT_DESCRIPTIONS = 600;
+
+    private static final String[] EXTERIORS = {"Factory New", "Minimal Wear", "Field-Tested", "Well-Worn", "Battle-Scarred"};
+    private static final String[] RARITIES = {"Consumer Grade", "Industrial Grade", "Mil-Spec Grade", "Restricted", "Classified", "Covert"};
+    private static final String[] STICKERS = {"Natus Vincere (Holo) | Katowice 2019", "Rock, Paper, Scissors (Foil)",
+        "s1mple (Gold) | Stockholm 2021", "Don't Worry, I'm Pro", "Crown (Foil)", "Ninjas in Pyjamas | Cologne 2014",
+        "Hi, My Game Is", "Vitality (Glitter) | Antwerp 2022"};
+
+    private interface Parser {
+        Object parse(InputStream body) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = Benchmarks.intArgument(args, 0, 200);
+        List<byte[]> pages = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            pages.add(Files.readAllBytes(Path.of(args[i])));
+        }
+        if (pages.isEmpty()) {
+            pages.add(inventoryPage().getBytes(StandardCharsets.UTF_8));
+            System.out.printf("Generated page: %d items, %d distinct descriptions%n", ITEMS, DISTINCT_DESCRIPTIONS);
+        }
+        long bytes = pages.stream().mapToLong(page -> page.length).sum();
+        System.out.printf("%d pages, %d KB per page, %d iterations%n", pages.size(), bytes / pages.size() / 1024, iterations);
+
+        ItemDescriptionCache cache = new ItemDescriptionCache(new StatisticsService());
+        ReflectionTestUtils.setField(cache, "ITEM_DESCRIPTION_CACHE_SIZE", 50_000);
+
+        ObjectMapper streaming = mapper(null);
+        ObjectMapper cached = mapper(cache);
+        ObjectMapper generic = new ObjectMapper();
+
+        Benchmarks.measure(1, report -> {
+            run("streaming", pages, iterations, report, b -> streaming.readValue(b, HttpInventoryResponse.class));
+            run("streaming + cache", pages, iterations, report, b -> cached.readValue(b, HttpInventoryResponse.class));
+            run("generic maps", pages, iterations, report, b -> generic.readValue(b, Map.class));
+        });
+    }
+
+    private static ObjectMapper mapper(ItemDescriptionCache cache) {
+        return new ObjectMapper().registerModule(new SimpleModule()
+            .addDeserializer(HttpInventoryResponse.class, new HttpInventoryResponseDeserializer(cache)));
+    }
+
+    private static void run(String name, List<byte[]> pages, int iterations, boolean report, Parser parser) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        Object sink = null;
+
+        long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (byte[] page : pages) {
+                sink = parser.parse(new ByteArrayInputStream(page));
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+        long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        if (sink == null) {
+            throw new IllegalStateException("Nothing parsed");
+        }
+        if (report) {
+            long parsed = (long) iterations * pages.size();
+            long bytes = pages.stream().mapToLong(page -> page.length).sum();
+            System.out.printf("%-18s %8.2f ms/page, %7.1f MB/s, %8d KB allocated/page%n", name, nanos / 1e6 / parsed,
+                bytes * (double) iterations * 1e3 / nanos, allocated / parsed / 1024);
+        }
+    }
+
+    private static String inventoryPage() {
+        StringBuilder json = new StringBuilder("{\"assets\":[");
+        for (int i = 0; i < ITEMS; i++) {
+            int description = i % DISTINCT_DESCRIPTIONS;
+            json.append(i == 0 ? "" : ",")
+                .append("{\"appid\":730,\"contextid\":\"2\",\"assetid\":\"").append(30_000_000_000L + i)
+                .append("\",\"classid\":\"").append(4_000_000 + description)
+                .append("\",\"instanceid\":\"").append(description % 3 == 0 ? "0" : String.valueOf(188_530_139 + description))
+                .append("\",\"amount\":\"1\"}");
+        }
+
+        json.append("],\"descriptions\":[");
+        for (int description = 0; description < DISTINCT_DESCRIPTIONS; description++) {
+            boolean statTrak = description % 5 == 0;
+            String exterior = EXTERIORS[description % EXTERIORS.length];
+            String name = (statTrak ? "StatTrak™ " : "") + "AK-47 | Pattern " + description;
+            json.append(description == 0 ? "" : ",")
+                .append("{\"appid\":730,\"classid\":\"").append(4_000_000 + description)
+                .append("\",\"instanceid\":\"").append(description % 3 == 0 ? "0" : String.valueOf(188_530_139 + description))
+                .append("\",\"currency\":0,\"background_color\":\"\",\"icon_url\":\"-9a81dlWLwJ2UUGcVs_nsVtzdOEdtWwKGZZLQHTxDZ7I56KU0Zwwo4NUX4oFJZEHLbXH5ApeO4YmlhxYQknCRvCo04DEVlxkKgpot7HxfDhjxszJemkV09-5lpKKqPrxN7LEmyVQ7MEpiLuSrYmnjQO3-UdsZGHyd4_Bd1RvNQ7T_FDrw-_ng5Pu75iY1zI97bhLsvQz\"")
+                .append(",\"descriptions\":[{\"type\":\"html\",\"value\":\"Exterior: ").append(exterior).append("\"}")
+                .append(",{\"type\":\"html\",\"value\":\" \"}")
+                .append(",{\"type\":\"html\",\"value\":\"Powerful and reliable, the AK-47 is one of the most popular assault rifles in the world.\"}");
+            if (description % 4 != 3) {
+                json.append(",{\"type\":\"html\",\"value\":\"").append(stickerInfo(description)).append("\",\"name\":\"sticker_info\"}");
+            }
+            json.append("],\"tradable\":1,\"name\":\"").append(name)
+                .append("\",\"name_color\":\"D2D2D2\",\"type\":\"").append(statTrak ? "StatTrak™ " : "").append("Classified Rifle")
+                .append("\",\"market_name\":\"").append(name).append(" (").append(exterior)
+                .append(")\",\"market_hash_name\":\"").append(name).append(" (").append(exterior)
+                .append(")\",\"commodity\":0,\"market_tradable_restriction\":7,\"marketable\":1,\"tags\":[")
+                .append(tag("Type", "Rifle")).append(",").append(tag("Weapon", "AK-47")).append(",")
+                .append(tag("ItemSet", "The Collection " + description % 40)).append(",")
+                .append(tag("Quality", statTrak ? "StatTrak™" : "Normal")).append(",")
+                .append(tag("Rarity", RARITIES[description % RARITIES.length])).append(",")
+                .append(tag("Exterior", exterior)).append("]}");
+        }
+
+        return json.append("],\"more_items\":1,\"last_assetid\":\"").append(30_000_000_000L + ITEMS - 1)
+            .append("\",\"total_inventory_count\":").append(ITEMS * 2).append(",\"success\":1,\"rwgrsn\":-2}").toString();
+    }
+
+    /**
+     * Builds a 'sticker_info' description line with four stickers, escaped for a JSON string.
+     */
+    private static String stickerInfo(int seed) {
+        StringBuilder images = new StringBuilder();
+        StringBuilder names = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            String sticker = STICKERS[(seed + i * 3) % STICKERS.length];
+            images.append("<img width=64 height=48 src=\\\"https://steamcdn-a.akamaihd.net/apps/730/icons/econ/stickers/sticker")
+                .append(seed + i).append(".png\\\">");
+            names.append(i == 0 ? "" : ", ").append(sticker);
+        }
+        return "<br><div id=\\\"sticker_info\\\" name=\\\"sticker_info\\\" title=\\\"Sticker\\\" style=\\\"border: 2px solid rgb(102, 102, 102); border-radius: 6px; width=100; margin:4px; padding:8px;\\\"><center>"
+            + images + "<br>Sticker: " + names + "</center></div>";
+    }
+
+    private static String tag(String category, String name) {
+        return "{\"category\":\"" + category + "\",\"internal_name\":\"" + category.toLowerCase() + "_" + name.hashCode()
+            + "\",\"localized_category_name\":\"" + category + "\",\"localized_tag_name\":\"" + name + "\"}";
+    }
+}
@@ -0,0 +1,82 @@
+package at.emielregis.backend.data.responses;
+
+import at.emielregis.backend.Benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the {@link StickerNameMatcher} against the linear scan over all sticker names containing commas it replaced,
+ * on the 'sticker_info' lines of heavily stickered items: five stickers each, a third of them with commas in their name.
+ * The linear scan is taken from the {@link StickerNameMatcherTest}, which checks that both split every line the same way.
+ * Arguments: [lines] [iterations], run it as described in {@link Benchmarks}.
+ */
+public class StickerNameMatcherBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    private static final String MARKER = "<br>Sticker:";
+    private static final String END = "</center>";
+    private static final String[] NAMES = {"Natus Vincere (Holo) | Katowice 2019", "s1mple (Gold) | Stockholm 2021",
+        "Crown (Foil)", "Ninjas in Pyjamas | Cologne 2014", "Vitality (Glitter) | Antwerp 2022", "Howling Dawn",
+        "Team Liquid | Boston 2018", "FaZe Clan (Holo) | Paris 2023"};
+
+    private interface Splitter {
+        List<String> split(String line, int from, int to);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int lineCount = Benchmarks.intArgument(args, 0, 10_000);
+        int iterations = Benchmarks.intArgument(args, 1, 20);
+
+        StickerNameMatcher matcher = StickerNameMatcher.fromResource("sticker_names_with_commas.txt");
+        List<String> commaNames = StickerNameMatcherTest.commaNames();
+        List<String[]> splitCommaNames = commaNames.stream().map(name -> name.split(",")).toList();
+        List<String> lines = stickerInfoLines(lineCount, commaNames);
+
+        Splitter trie = matcher::split;
+        Splitter linearScan = (line, from, to) -> StickerNameMatcherTest.linearScan(splitCommaNames, line, from, to);
+        System.out.printf("%d lines with 5 stickers each, %d names with commas, %d iterations%n", lineCount, commaNames.size(), iterations);
+
+        Benchmarks.measure(WARMUP_ROUNDS, report -> {
+            run("trie", lines, iterations, report, trie);
+            run("linear scan", lines, iterations, report, linearScan);
+        });
+    }
+
+    private static void run(String name, List<String> lines, int iterations, boolean report, Splitter splitter) {
+        long stickers = 0;
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            for (String line : lines) {
+                int from = line.indexOf(MARKER) + MARKER.length();
+                stickers += splitter.split(line, from, line.indexOf(END, from)).size();
+            }
+        }
+        long nanos = System.nanoTime() - begin;
+
+        if (report) {
+            System.out.printf("%-12s %8.0f ns/line, %10.0f stickers/s%n", name, nanos / (double) iterations / lines.size(), stickers * 1e9 / nanos);
+        }
+    }
+
+    private static List<String> stickerInfoLines(int count, List<String> commaNames) {
+        Random random = new Random(42);
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder images = new StringBuilder();
+            StringBuilder names = new StringBuilder();
+            for (int j = 0; j < 5; j++) {
+                String name = random.nextInt(3) == 0
+                    ? commaNames.get(random.nextInt(commaNames.size()))
+                    : NAMES[random.nextInt(NAMES.length)];
+                images.append("<img width=64 height=48 src=\"https://steamcdn-a.akamaihd.net/apps/730/icons/econ/stickers/sticker")
+                    .append(i).append('_').append(j).append(".png\">");
+                names.append(j == 0 ? "" : ", ").append(name);
+            }
+            lines.add("<br><div id=\"sticker_info\" name=\"sticker_info\" title=\"Sticker\" style=\"border: 2px solid rgb(102, 102, 102); border-radius: 6px; width=100; margin:4px; padding:8px;\"><center>"
+                + images + MARKER + " " + names + END + "</div>");
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,161 @@
+package at.emielregis.backend.data.responses;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Checks that the {@link StickerNameMatcher} splits 'sticker_info' lines exactly like the linear scan over all sticker
+ * names containing commas it replaced, on fixed edge cases and on randomly generated lines.
+ */
+class StickerNameMatcherTest {
+    private static final int RANDOM_LINES = 20_000;
+    private static final String[] NAMES = {"Natus Vincere (Holo) | Katowice 2019", "s1mple (Gold) | Stockholm 2021",
+        "Crown (Foil)", "Ninjas in Pyjamas | Cologne 2014", "Run CT", "Run", "Champion", "Howling Dawn", ""};
+    private static final String[] SEPARATORS = {", ", ", ", ", ", ",", ",  ", " , "};
+
+    private final StickerNameMatcher matcher = StickerNameMatcher.fromResource("sticker_names_with_commas.txt");
+    private final List<String[]> splitCommaNames = commaNames().stream().map(name -> name.split(",")).toList();
+
+    @Test
+    void namesWithCommasAreKeptTogether() {
+        assertSplit(" Run CT, Run, Crown (Foil)", "Run CT, Run", "Crown (Foil)");
+        assertSplit("Crown (Foil), Run T, Run", "Crown (Foil)", "Run T, Run");
+        assertSplit("Rock, Paper, Scissors (Foil), Don't Worry, I'm Pro", "Rock, Paper, Scissors (Foil)", "Don't Worry, I'm Pro");
+    }
+
+    @Test
+    void championNamesAreKeptTogether() {
+        assertSplit("Twistzz (Gold, Champion) | Antwerp 2022, ropz (Holo, Champion) | Antwerp 2022, Crown (Foil)",
+            "Twistzz (Gold, Champion) | Antwerp 2022", "ropz (Holo, Champion) | Antwerp 2022", "Crown (Foil)");
+    }
+
+    @Test
+    void incompleteNamesWithCommasAreSplit() {
+        assertSplit("Run CT, Crown (Foil)", "Run CT", "Crown (Foil)");
+        assertSplit("Twistzz (Gold, Crown (Foil)", "Twistzz (Gold", "Crown (Foil)");
+    }
+
+    @Test
+    void doubledSpacesAreCollapsed() {
+        assertSplit("Natus  Vincere  (Holo) | Katowice 2019,   Crown (Foil)", "Natus Vincere (Holo) | Katowice 2019", "Crown (Foil)");
+        assertSplit("Run  CT, Run", "Run CT, Run");
+    }
+
+    @Test
+    void trailingCommasAreDropped() {
+        assertSplit("Crown (Foil), Howling Dawn,", "Crown (Foil)", "Howling Dawn");
+        assertSplit("Crown (Foil), Run CT,", "Crown (Foil)", "Run CT");
+        assertSplit("Crown (Foil),, ", "Crown (Foil)");
+    }
+
+    @Test
+    void emptyLinesHaveNoStickers() {
+        // the linear scan returned a single empty name here
+        assertThat(matcher.split(" , ", 0, 3)).isEmpty();
+        assertThat(matcher.split("   ", 0, 3)).isEmpty();
+    }
+
+    @Test
+    void randomLinesAreSplitLikeTheLinearScan() {
+        List<String> commaNames = commaNames();
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_LINES; i++) {
+            StringBuilder line = new StringBuilder("<br>Sticker:").append(random.nextBoolean() ? " " : "  ");
+            int stickers = 1 + random.nextInt(5);
+            for (int j = 0; j < stickers; j++) {
+                line.append(j == 0 ? "" : SEPARATORS[random.nextInt(SEPARATORS.length)])
+                    .append(random.nextInt(3) == 0
+                        ? commaNames.get(random.nextInt(commaNames.size()))
+                        : NAMES[random.nextInt(NAMES.length)]);
+            }
+            line.append(random.nextInt(4) == 0 ? "," : "").append("</center>");
+
+            String string = line.toString();
+            int from = "<br>Sticker:".length();
+            int to = string.indexOf("</center>");
+            if (string.substring(from, to).replace(",", "").isBlank()) {
+                continue; // see emptyLinesHaveNoStickers
+            }
+            assertThat(matcher.split(string, from, to)).as(string).isEqualTo(linearScan(splitCommaNames, string, from, to));
+        }
+    }
+
+    private void assertSplit(String line, String... expected) {
+        assertThat(matcher.split(line, 0, line.length())).as(line)
+            .containsExactly(expected)
+            .isEqualTo(linearScan(splitCommaNames, line, 0, line.length()));
+    }
+
+    /**
+     * The previous parsing: splits at every comma, collapses the spaces of each part with a regex and compares the part
+     * with the first part of every name containing commas.
+     *
+     * @param commaNames The names containing commas, split at their commas.
+     * @param line       The line containing the sticker names.
+     * @param from       The index of the first character of the sticker names.
+     * @param to         The index after the last character of the sticker names.
+     * @return The sticker names.
+     */
+    static List<String> linearScan(List<String[]> commaNames, String line, int from, int to) {
+        String[] split = line.substring(from, to).trim().split(",");
+        List<String> stickers = new ArrayList<>();
+        for (int i = 0; i < split.length; i++) {
+            String stickerName = split[i].trim().replaceAll(" {2,}", " ");
+
+            for (String[] commaName : commaNames) {
+                if (stickerName.equals(commaName[0])) {
+                    int remaining = commaName.length - 1;
+                    if (split.length - i - 1 < remaining) {
+                        continue;
+                    }
+
+                    boolean matches = true;
+                    for (int j = i + 1; j < i + 1 + remaining; j++) {
+                        if (!split[j].equals(commaName[j - i])) {
+                            matches = false;
+                            break;
+                        }
+                    }
+                    if (!matches) {
+                        continue;
+                    }
+
+                    stickerName = String.join(",", commaName);
+                    i += remaining;
+                    break;
+                }
+            }
+            stickers.add(stickerName);
+        }
+        return stickers;
+    }
+
+    /**
+     * Reads the names containing commas from the resource the {@link StickerNameMatcher} is built from.
+     *
+     * @return The names containing commas.
+     */
+    static List<String> commaNames() {
+        InputStream stream = Objects.requireNonNull(StickerNameMatcherTest.class.getClassLoader()
+            .getResourceAsStream("sticker_names_with_commas.txt"));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return reader.lines()
+                .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package at.emielregis.backend.service;
+
+import at.emielregis.backend.Benchmarks;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ProxyService.ThreadMode}s by running blocking workers on the executor {@link ProxyService}
+ * creates for each mode against a local stub server that answers every request after a fixed latency, like a slow
+ * proxy would. Reports the throughput and the peak amount of live threads of each mode.
+ * <p>
+ * Arguments: [workers] [requests per worker] [latency millis], run it as described in {@link Benchmarks}.
+ * Virtual threads are only measured on Java 21 and above.
+ */
+public class ThreadModeBenchmark {
+    private static final byte[] BODY = "{\"success\":1}".getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        int workers = Benchmarks.intArgument(args, 0, 500);
+        int requestsPerWorker = Benchmarks.intArgument(args, 1, 10);
+        int latencyMillis = Benchmarks.intArgument(args, 2, 100);
+
+        ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), workers);
+        // the handler returns right away, so the server needs few threads however many requests wait for their latency
+        server.createContext("/", exchange -> responder.schedule(() -> respond(exchange), latencyMillis, TimeUnit.MILLISECONDS));
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.start();
+
+        String uri = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+        System.out.printf("%d workers, %d requests each, %d ms latency, Java %s%n", workers, requestsPerWorker, latencyMillis, Runtime.version());
+
+        try {
+            for (ProxyService.ThreadMode mode : ProxyService.ThreadMode.values()) {
+                try {
+                    ProxyService.createExecutor(mode).shutdown();
+                } catch (IllegalStateException e) {
+                    System.out.printf("%-8s skipped: %s%n", mode, e.getMessage());
+                    continue;
+                }
+                // the warmup round also warms up the server and the client
+                Benchmarks.measure(1, report -> run(mode, uri, workers, requestsPerWorker, report));
+            }
+        } finally {
+            server.stop(0);
+            responder.shutdownNow();
+            ((ExecutorService) server.getExecutor()).shutdownNow();
+        }
+    }
+
+    private static void run(ProxyService.ThreadMode mode, String uri, int workers, int requestsPerWorker, boolean report) throws Exception {
+        ExecutorService executor = ProxyService.createExecutor(mode);
+
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(10_000);
+        requestFactory.setReadTimeout(60_000);
+        RestTemplate restTemplate = new RestTemplate(requestFactory);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+
+        for (int i = 0; i < workers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                for (int j = 0; j < requestsPerWorker; j++) {
+                    restTemplate.getForObject(uri, String.class);
+                }
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> result : results) {
+            result.get();
+        }
+        long nanos = System.nanoTime() - begin;
+        executor.shutdown();
+
+        if (report) {
+            System.out.printf("%-8s %8.0f requests/s, %5d ms, %5d peak platform threads%n",
+                mode, workers * (double) requestsPerWorker * 1e9 / nanos, nanos / 1_000_000, threads.getPeakThreadCount());
+        }
+    }
+
+    private static void respond(HttpExchange exchange) {
+        try (OutputStream body = exchange.getResponseBody()) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, BODY.length);
+            body.write(BODY);
+        } catch (IOException e) {
+            exchange.close();
+        }
+    }
+}
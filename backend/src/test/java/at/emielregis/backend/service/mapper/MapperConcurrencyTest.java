@@ -0,0 +1,147 @@
+package at.emielregis.backend.service.mapper;
+
+import at.emielregis.backend.data.entities.items.*;
+import at.emielregis.backend.data.enums.Exterior;
+import at.emielregis.backend.data.enums.Rarity;
+import at.emielregis.backend.data.enums.SpecialItemType;
+import at.emielregis.backend.data.enums.StickerType;
+import at.emielregis.backend.repository.*;
+import at.emielregis.backend.service.StatisticsService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Maps the same items from many threads at once and checks that every sub-entity and item type is stored exactly once.
+ * The threads run outside of a test transaction, so they commit like the writers of the application.
+ */
+@DataJpaTest
+@Import(Mapper.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class MapperConcurrencyTest {
+    private static final int THREADS = 16;
+    private static final int ITEMS_PER_THREAD = 400;
+    private static final int DISTINCT_NAMES = 25;
+    private static final int DISTINCT_STICKERS = 15;
+    private static final int DISTINCT_CHARMS = 5;
+
+    @MockBean
+    private StatisticsService statisticsService;
+
+    @Autowired
+    private Mapper mapper;
+
+    @Autowired
+    private ItemTypeRepository itemTypeRepository;
+
+    @Autowired
+    private ItemNameRepository itemNameRepository;
+
+    @Autowired
+    private ItemCategoryRepository itemCategoryRepository;
+
+    @Autowired
+    private ItemSetRepository itemSetRepository;
+
+    @Autowired
+    private StickerRepository stickerRepository;
+
+    @Autowired
+    private CharmRepository charmRepository;
+
+    @Test
+    void concurrentMappingStoresEveryEntityOnce() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        Map<String, Long> itemTypeIds = new ConcurrentHashMap<>();
+        List<Future<?>> workers = new ArrayList<>();
+
+        try {
+            for (int thread = 0; thread < THREADS; thread++) {
+                int offset = thread;
+                workers.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < ITEMS_PER_THREAD; i++) {
+                        int variant = (i + offset) % (DISTINCT_NAMES * 2);
+                        ItemCollection mapped = mapper.convertToNonTransient(transientItem(variant));
+
+                        // equal items map to the same stored item type, whichever thread stored it
+                        Long previous = itemTypeIds.putIfAbsent(itemTypeKey(variant), mapped.getItemType().getId());
+                        assertThat(mapped.getItemType().getId()).isNotNull().isEqualTo(previous == null ? mapped.getItemType().getId() : previous);
+                        assertThat(mapped.getStickers()).allSatisfy(sticker -> assertThat(sticker.getId()).isNotNull());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> worker : workers) {
+                worker.get(2, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(itemNameRepository.count()).isEqualTo(DISTINCT_NAMES);
+        assertThat(itemCategoryRepository.count()).isEqualTo(2);
+        assertThat(itemSetRepository.count()).isEqualTo(3);
+        assertThat(stickerRepository.count()).isEqualTo(DISTINCT_STICKERS);
+        assertThat(charmRepository.count()).isEqualTo(DISTINCT_CHARMS);
+        // every name in two variants: with and without StatTrak
+        assertThat(itemTypeRepository.count()).isEqualTo(DISTINCT_NAMES * 2).isEqualTo(itemTypeIds.size());
+    }
+
+    /**
+     * Builds a new transient item like the inventory deserializer does, without sharing any instances between calls.
+     */
+    private static ItemCollection transientItem(int variant) {
+        int name = variant % DISTINCT_NAMES;
+        boolean statTrak = variant >= DISTINCT_NAMES;
+
+        ItemType itemType = ItemType.builder()
+            .itemName(ItemName.builder().name("Item " + name).build())
+            .category(ItemCategory.builder().name(name % 2 == 0 ? "Rifle" : "Pistol").build())
+            // items without a set, exterior and rarity exercise the nullable parts of the natural key
+            .itemSet(name % 4 == 0 ? null : ItemSet.builder().name("Set " + name % 3).build())
+            .exterior(name % 4 == 0 ? null : Exterior.FIELD_TESTED)
+            .rarity(name % 4 == 0 ? null : Rarity.CLASSIFIED)
+            .specialItemType(statTrak ? SpecialItemType.STAT_TRAK : SpecialItemType.NONE)
+            .marketHashName(itemTypeKey(variant))
+            .build();
+
+        List<Sticker> stickers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            int sticker = (variant + i) % DISTINCT_STICKERS;
+            stickers.add(Sticker.builder()
+                .name("Sticker " + sticker)
+                .stickerType(sticker % 2 == 0 ? StickerType.HOLO : StickerType.NORMAL)
+                .build());
+        }
+
+        return ItemCollection.builder()
+            .amount(1)
+            .itemType(itemType)
+            .stickers(stickers)
+            .charm(Charm.builder().name("Charm " + variant % DISTINCT_CHARMS).build())
+            .build();
+    }
+
+    private static String itemTypeKey(int variant) {
+        return (variant >= DISTINCT_NAMES ? "StatTrak Item " : "Item ") + variant % DISTINCT_NAMES;
+    }
+}